@@ -15,9 +15,23 @@
  */
 package lab.mage.spring.cassandra.connector.config;
 
+import com.datastax.driver.core.TypeCodec;
+import lab.mage.spring.cassandra.connector.core.AdminKeyspaceUsageSink;
 import lab.mage.spring.cassandra.connector.core.CassandraSessionProvider;
+import lab.mage.spring.cassandra.connector.core.CircuitBreakerRegistry;
+import lab.mage.spring.cassandra.connector.core.CounterAggregator;
+import lab.mage.spring.cassandra.connector.core.FileUsageSink;
+import lab.mage.spring.cassandra.connector.core.QueryDiagnostics;
 import lab.mage.spring.cassandra.connector.core.TenantAwareCassandraMapperProvider;
 import lab.mage.spring.cassandra.connector.core.TenantAwareEntityTemplate;
+import lab.mage.spring.cassandra.connector.core.TenantAwareTimeSeriesTemplate;
+import lab.mage.spring.cassandra.connector.core.TenantBulkLoader;
+import lab.mage.spring.cassandra.connector.core.TenantFanOutExecutor;
+import lab.mage.spring.cassandra.connector.core.TenantKeyspaceExporter;
+import lab.mage.spring.cassandra.connector.core.TenantProvisioner;
+import lab.mage.spring.cassandra.connector.core.TenantTableScanner;
+import lab.mage.spring.cassandra.connector.core.UsageAccountant;
+import lab.mage.spring.cassandra.connector.core.UsageSink;
 import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,12 +41,28 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class CassandraConnectorConfiguration {
 
     @Autowired
     private Environment env;
 
+    @Autowired(required = false)
+    @Qualifier(CassandraConnectorConstants.EXECUTOR_NAME)
+    private Executor executor;
+
+    @Autowired(required = false)
+    private List<UsageSink> usageSinks;
+
+    @Autowired(required = false)
+    private List<TypeCodec<?>> codecs;
+
     public CassandraConnectorConfiguration() {
         super();
     }
@@ -52,21 +82,109 @@ public class CassandraConnectorConfiguration {
                 this.env.getProperty(CassandraConnectorConstants.CONTACT_POINTS_PROP, CassandraConnectorConstants.CONTACT_POINTS_PROP_DEFAULT));
         cassandraSessionProvider.setAdminKeyspace(
                 this.env.getProperty(CassandraConnectorConstants.KEYSPACE_PROP, CassandraConnectorConstants.KEYSPACE_PROP_DEFAULT));
+        if (this.codecs != null) {
+            cassandraSessionProvider.setCodecs(this.codecs);
+        }
 
         cassandraSessionProvider.touchAdminSession();
 
+        final long tenantRefreshInterval = Long.valueOf(this.env.getProperty(
+                CassandraConnectorConstants.TENANT_REFRESH_INTERVAL_PROP, CassandraConnectorConstants.TENANT_REFRESH_INTERVAL_PROP_DEFAULT));
+        if (tenantRefreshInterval > 0L) {
+            cassandraSessionProvider.startTenantRefresh(tenantRefreshInterval, TimeUnit.SECONDS);
+        }
+
         return cassandraSessionProvider;
     }
 
     @Bean
     @Autowired
-    public TenantAwareCassandraMapperProvider cassandraMapperProvider(@Qualifier(CassandraConnectorConstants.LOGGER_NAME) final Logger logger, final CassandraSessionProvider cassandraSessionProvider) {
-        return new TenantAwareCassandraMapperProvider(this.env, logger, cassandraSessionProvider);
+    public TenantAwareCassandraMapperProvider cassandraMapperProvider(final CassandraSessionProvider cassandraSessionProvider) {
+        return new TenantAwareCassandraMapperProvider(cassandraSessionProvider);
+    }
+
+    @Bean
+    @Autowired
+    public TenantAwareEntityTemplate tenantAwareEntityTemplate(final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider, final CassandraSessionProvider cassandraSessionProvider) {
+        final TenantAwareEntityTemplate tenantAwareEntityTemplate =
+                new TenantAwareEntityTemplate(this.env, tenantAwareCassandraMapperProvider,
+                        cassandraSessionProvider.getQueryDiagnostics(), cassandraSessionProvider.getUsageAccountant());
+        if (this.executor != null) {
+            tenantAwareEntityTemplate.setExecutor(this.executor);
+        }
+        return tenantAwareEntityTemplate;
+    }
+
+    @Bean
+    @Autowired
+    public TenantFanOutExecutor tenantFanOutExecutor(@Qualifier(CassandraConnectorConstants.LOGGER_NAME) final Logger logger, final CassandraSessionProvider cassandraSessionProvider) {
+        return new TenantFanOutExecutor(this.env, logger, cassandraSessionProvider);
+    }
+
+    @Bean
+    @Autowired
+    public TenantTableScanner tenantTableScanner(@Qualifier(CassandraConnectorConstants.LOGGER_NAME) final Logger logger, final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider) {
+        return new TenantTableScanner(this.env, logger, tenantAwareCassandraMapperProvider);
+    }
+
+    @Bean
+    @Autowired
+    public TenantBulkLoader tenantBulkLoader(@Qualifier(CassandraConnectorConstants.LOGGER_NAME) final Logger logger, final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider) {
+        return new TenantBulkLoader(this.env, logger, tenantAwareCassandraMapperProvider);
+    }
+
+    @Bean
+    @Autowired
+    public TenantKeyspaceExporter tenantKeyspaceExporter(@Qualifier(CassandraConnectorConstants.LOGGER_NAME) final Logger logger, final CassandraSessionProvider cassandraSessionProvider) {
+        return new TenantKeyspaceExporter(this.env, logger, cassandraSessionProvider);
+    }
+
+    @Bean
+    @Autowired
+    public TenantProvisioner tenantProvisioner(@Qualifier(CassandraConnectorConstants.LOGGER_NAME) final Logger logger, final CassandraSessionProvider cassandraSessionProvider, final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider) {
+        return new TenantProvisioner(this.env, logger, cassandraSessionProvider, tenantAwareCassandraMapperProvider);
+    }
+
+    @Bean
+    @Autowired
+    public CircuitBreakerRegistry circuitBreakerRegistry(final CassandraSessionProvider cassandraSessionProvider) {
+        return cassandraSessionProvider.getCircuitBreakerRegistry();
+    }
+
+    @Bean
+    @Autowired
+    public QueryDiagnostics queryDiagnostics(final CassandraSessionProvider cassandraSessionProvider) {
+        return cassandraSessionProvider.getQueryDiagnostics();
+    }
+
+    @Bean
+    @Autowired
+    public UsageAccountant usageAccountant(final CassandraSessionProvider cassandraSessionProvider) {
+        final UsageAccountant usageAccountant = cassandraSessionProvider.getUsageAccountant();
+        final String usageExportFile = this.env.getProperty(CassandraConnectorConstants.USAGE_EXPORT_FILE_PROP);
+        if (usageExportFile != null && !usageExportFile.trim().isEmpty()) {
+            usageAccountant.addUsageSink(new FileUsageSink(Paths.get(usageExportFile.trim())));
+        }
+        if (Boolean.valueOf(this.env.getProperty(CassandraConnectorConstants.USAGE_EXPORT_ADMIN_KEYSPACE_PROP,
+                CassandraConnectorConstants.USAGE_EXPORT_ADMIN_KEYSPACE_PROP_DEFAULT))) {
+            usageAccountant.addUsageSink(new AdminKeyspaceUsageSink(cassandraSessionProvider,
+                    ManagementFactory.getRuntimeMXBean().getName()));
+        }
+        if (this.usageSinks != null) {
+            this.usageSinks.forEach(usageAccountant::addUsageSink);
+        }
+        return usageAccountant;
+    }
+
+    @Bean
+    @Autowired
+    public CounterAggregator counterAggregator(@Qualifier(CassandraConnectorConstants.LOGGER_NAME) final Logger logger, final CassandraSessionProvider cassandraSessionProvider) {
+        return new CounterAggregator(this.env, logger, cassandraSessionProvider);
     }
 
     @Bean
     @Autowired
-    public TenantAwareEntityTemplate tenantAwareEntityTemplate(final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider) {
-        return new TenantAwareEntityTemplate(tenantAwareCassandraMapperProvider);
+    public TenantAwareTimeSeriesTemplate tenantAwareTimeSeriesTemplate(@Qualifier(CassandraConnectorConstants.LOGGER_NAME) final Logger logger, final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider, final CassandraSessionProvider cassandraSessionProvider) {
+        return new TenantAwareTimeSeriesTemplate(this.env, logger, tenantAwareCassandraMapperProvider, cassandraSessionProvider);
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.List;
+
+public final class AdminKeyspaceUsageSink implements UsageSink {
+
+    public static final String TABLE_NAME = "tenant_usage";
+
+    private static final int MAX_IN_FLIGHT = 64;
+
+    private final CassandraSessionProvider cassandraSessionProvider;
+    private final String instance;
+    private PreparedStatement insertStatement;
+
+    public AdminKeyspaceUsageSink(@Nonnull final CassandraSessionProvider cassandraSessionProvider,
+                                  @Nonnull final String instance) {
+        super();
+        Assert.notNull(cassandraSessionProvider, "A Cassandra session provider must be given!");
+        Assert.notNull(instance, "An instance must be given!");
+        Assert.hasText(instance, "An instance must be given!");
+        this.cassandraSessionProvider = cassandraSessionProvider;
+        this.instance = instance;
+    }
+
+    @Override
+    public synchronized void export(@Nonnull final List<UsageSnapshot> usageSnapshots) {
+        Assert.notNull(usageSnapshots, "Usage snapshots must be given!");
+        final Session session = this.cassandraSessionProvider.getAdminSession();
+        if (this.insertStatement == null) {
+            // counters are cumulative per instance, so every instance owns its rows and overwrites them idempotently
+            session.execute("CREATE TABLE IF NOT EXISTS " + AdminKeyspaceUsageSink.TABLE_NAME + " ("
+                    + "identifier text, table_name text, instance text, reads bigint, writes bigint, rows_returned bigint, "
+                    + "bytes_sent bigint, bytes_received bigint, captured_at timestamp, "
+                    + "PRIMARY KEY ((identifier), table_name, instance))");
+            this.insertStatement = session.prepare("INSERT INTO " + AdminKeyspaceUsageSink.TABLE_NAME
+                    + " (identifier, table_name, instance, reads, writes, rows_returned, bytes_sent, bytes_received, captured_at)"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+
+        final ArrayDeque<ResultSetFuture> futures = new ArrayDeque<>();
+        for (final UsageSnapshot usageSnapshot : usageSnapshots) {
+            if (futures.size() >= AdminKeyspaceUsageSink.MAX_IN_FLIGHT) {
+                futures.poll().getUninterruptibly();
+            }
+            futures.add(session.executeAsync(this.insertStatement.bind(usageSnapshot.getIdentifier(), usageSnapshot.getTable(),
+                    this.instance, usageSnapshot.getReads(), usageSnapshot.getWrites(), usageSnapshot.getRowsReturned(),
+                    usageSnapshot.getBytesSent(), usageSnapshot.getBytesReceived(), new Date(usageSnapshot.getCapturedAt()))));
+        }
+        futures.forEach(ResultSetFuture::getUninterruptibly);
+    }
+}
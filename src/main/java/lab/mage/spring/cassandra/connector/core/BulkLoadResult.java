@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import java.util.Optional;
+
+public final class BulkLoadResult {
+
+    private final long loadedRows;
+    private final long failedRows;
+    private final long elapsedMillis;
+    private final Throwable firstError;
+
+    BulkLoadResult(final long loadedRows, final long failedRows, final long elapsedMillis, final Throwable firstError) {
+        super();
+        this.loadedRows = loadedRows;
+        this.failedRows = failedRows;
+        this.elapsedMillis = elapsedMillis;
+        this.firstError = firstError;
+    }
+
+    public long getLoadedRows() {
+        return this.loadedRows;
+    }
+
+    public long getFailedRows() {
+        return this.failedRows;
+    }
+
+    public long getElapsedMillis() {
+        return this.elapsedMillis;
+    }
+
+    public double getRowsPerSecond() {
+        return this.elapsedMillis > 0L ? this.loadedRows * 1000.0D / this.elapsedMillis : 0.0D;
+    }
+
+    public Optional<Throwable> getFirstError() {
+        return Optional.ofNullable(this.firstError);
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoadResult{" +
+                "loadedRows=" + loadedRows +
+                ", failedRows=" + failedRows +
+                ", elapsedMillis=" + elapsedMillis +
+                ", rowsPerSecond=" + String.format("%.1f", this.getRowsPerSecond()) +
+                '}';
+    }
+}
@@ -15,35 +15,91 @@
  */
 package lab.mage.spring.cassandra.connector.core;
 
+import com.datastax.driver.core.CloseFuture;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.QueryOptions;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TypeCodec;
 import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.mapping.Mapper;
 import com.datastax.driver.mapping.MappingManager;
 import lab.mage.spring.cassandra.connector.domain.TenantInfo;
 import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
 import lab.mage.spring.cassandra.connector.util.TenantContextHolder;
+import lab.mage.spring.cassandra.connector.util.TenantReference;
 import org.slf4j.Logger;
 import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
 
 import javax.annotation.Nonnull;
 import javax.annotation.PreDestroy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public final class CassandraSessionProvider {
 
     private final Environment env;
     private final Logger logger;
-    private final ConcurrentHashMap<String, Cluster> clusterCache;
-    private final ConcurrentHashMap<String, Session> sessionCache;
+    private final ConcurrentHashMap<String, ClusterKey> clusterKeyCache;
+    private final ConcurrentHashMap<ClusterKey, Cluster> clusterCache;
+    private final ConcurrentHashMap<SessionKey, Session> sessionCache;
+    private final ConcurrentHashMap<Cluster, Session> clusterSessionCache;
+    private final TenantHandleTable tenantHandles;
+    private final Memoizer<ClusterKey, Cluster> clusterMemoizer;
+    private final Memoizer<SessionKey, Session> sessionMemoizer;
+    private final Memoizer<String, TenantHandle> tenantHandleMemoizer;
+    private final CopyOnWriteArrayList<Consumer<String>> tenantChangeListeners;
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final long drainTimeout;
+    private final long drainGracePeriod;
+    private final long shutdownTimeout;
+    private final int port;
+    private final SharedNettyOptions nettyOptions;
+    private final ConsistencyLevel defaultConsistencyLevel;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final QueryDiagnostics queryDiagnostics;
+    private final UsageAccountant usageAccountant;
+    private final ConcurrentHashMap<Cluster, ClusterKey> primaryClusterKeys;
+    private final ConcurrentHashMap<Cluster, CircuitBreaker> clusterCircuitBreakers;
+    private final ConcurrentHashMap<Session, CircuitBreaker> keyspaceCircuitBreakers;
+    private final ConcurrentHashMap<Cluster, ConcurrentHashMap<String, ConcurrentHashMap<String, TenantHandle>>> tenantHandlesByKeyspace;
 
     private String adminClusterName;
     private String adminContactPoints;
     private String adminKeyspace;
 
     private MappingManager adminSessionMappingManager;
+    private volatile boolean closed;
+    private volatile List<TypeCodec<?>> codecs = Collections.emptyList();
 
     private final StampedLock mapperLock = new StampedLock();
 
@@ -53,8 +109,43 @@ public final class CassandraSessionProvider {
         Assert.notNull(logger, "A logger must be given!");
         this.env = env;
         this.logger = logger;
+        this.clusterKeyCache = new ConcurrentHashMap<>();
         this.clusterCache = new ConcurrentHashMap<>();
         this.sessionCache = new ConcurrentHashMap<>();
+        this.clusterSessionCache = new ConcurrentHashMap<>();
+        this.tenantHandles = new TenantHandleTable();
+        this.clusterMemoizer = new Memoizer<>(this.clusterCache);
+        this.sessionMemoizer = new Memoizer<>(this.sessionCache);
+        this.tenantHandleMemoizer = new Memoizer<>(this.tenantHandles::get,
+                (identifier, tenantHandle) -> this.publish(tenantHandle));
+        this.tenantChangeListeners = new CopyOnWriteArrayList<>();
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mage-session-provider-");
+        threadFactory.setDaemon(true);
+        this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.drainTimeout = Long.valueOf(this.env.getProperty(CassandraConnectorConstants.SESSION_DRAIN_TIMEOUT_PROP,
+                CassandraConnectorConstants.SESSION_DRAIN_TIMEOUT_PROP_DEFAULT));
+        this.drainGracePeriod = Long.valueOf(this.env.getProperty(CassandraConnectorConstants.SESSION_DRAIN_GRACE_PERIOD_PROP,
+                CassandraConnectorConstants.SESSION_DRAIN_GRACE_PERIOD_PROP_DEFAULT));
+        this.shutdownTimeout = Long.valueOf(this.env.getProperty(CassandraConnectorConstants.SHUTDOWN_TIMEOUT_PROP,
+                CassandraConnectorConstants.SHUTDOWN_TIMEOUT_PROP_DEFAULT));
+        this.port = Integer.valueOf(this.env.getProperty(CassandraConnectorConstants.CASSANDRA_PORT_PROP,
+                CassandraConnectorConstants.CASSANDRA_PORT_DEFAULT));
+        this.nettyOptions = new SharedNettyOptions(Integer.valueOf(this.env.getProperty(
+                CassandraConnectorConstants.EVENT_LOOP_THREADS_PROP,
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        // statements without an explicit consistency level, e.g. of accessors, use the configured read level
+        this.defaultConsistencyLevel = ConsistencyLevel.valueOf(this.env.getProperty(
+                CassandraConnectorConstants.CONSISTENCY_LEVEL_DEFAULT_PROP,
+                this.env.getProperty(CassandraConnectorConstants.CONSISTENCY_LEVEL_READ_PROP,
+                        CassandraConnectorConstants.CONSISTENCY_LEVEL_PROP_DEFAULT)));
+        this.circuitBreakerRegistry = new CircuitBreakerRegistry(env, logger);
+        this.queryDiagnostics = new QueryDiagnostics(env, logger, (cluster, keyspace) ->
+                Optional.ofNullable(this.resolveTenantHandle(cluster, keyspace)).map(TenantHandle::getIdentifier));
+        this.usageAccountant = new UsageAccountant(env, logger, this::resolveTenantHandle);
+        this.primaryClusterKeys = new ConcurrentHashMap<>();
+        this.clusterCircuitBreakers = new ConcurrentHashMap<>();
+        this.keyspaceCircuitBreakers = new ConcurrentHashMap<>();
+        this.tenantHandlesByKeyspace = new ConcurrentHashMap<>();
     }
 
     public void setAdminClusterName(@Nonnull final String adminClusterName) {
@@ -75,6 +166,18 @@ public final class CassandraSessionProvider {
         this.adminKeyspace = adminKeyspace;
     }
 
+    public void setCodecs(@Nonnull final List<TypeCodec<?>> codecs) {
+        Assert.notNull(codecs, "Codecs must be given!");
+        // mappers and prepared statements resolve their codecs once, so late registrations would apply unevenly
+        Assert.state(this.clusterCache.isEmpty(), "Codecs must be set before the first cluster is created!");
+        this.codecs = Collections.unmodifiableList(new ArrayList<>(codecs));
+    }
+
+    @Nonnull
+    public List<TypeCodec<?>> getCodecs() {
+        return this.codecs;
+    }
+
     @Nonnull
     public Session getAdminSession() {
         if (this.adminClusterName == null
@@ -88,26 +191,91 @@ public final class CassandraSessionProvider {
 
     @Nonnull
     public Session getTenantSession() {
-        if (TenantContextHolder.getIdentifier().isPresent()) {
-            final String identifier = TenantContextHolder.getIdentifier().get();
-            return this.getTenantSession(identifier);
+        return this.getTenantHandle().getSession();
+    }
+
+    @Nonnull
+    public Session getTenantSession(@Nonnull final String identifier) {
+        return this.getTenantHandle(identifier).getSession();
+    }
+
+    @Nonnull
+    public TenantHandle getTenantHandle() {
+        this.checkOpen();
+        final Optional<TenantReference> tenantReference = TenantContextHolder.getReference();
+        if (tenantReference.isPresent()) {
+            // a handle bound by runAs/callAs is used as long as it is current, otherwise the lock-free table is asked
+            if (tenantReference.get() instanceof TenantHandle && this.tenantHandles.isCurrent((TenantHandle) tenantReference.get())) {
+                return (TenantHandle) tenantReference.get();
+            }
+            return this.getTenantHandle(tenantReference.get().getIdentifier());
         } else {
             throw new IllegalArgumentException("Could not find tenant identifier, make sure you set an identifier using TenantContextHolder.");
         }
     }
 
     @Nonnull
-    public Session getTenantSession(@Nonnull final String identifier) {
+    public TenantHandle getTenantHandle(@Nonnull final String identifier) {
         Assert.notNull(identifier, "A tenant identifier must be given!");
         Assert.hasText(identifier, "A tenant identifier must be given!");
 
-        final Mapper<TenantInfo> tenantInfoMapper = this.getAdminSessionMappingManager().mapper(TenantInfo.class);
-        tenantInfoMapper.setDefaultDeleteOptions(OptionProvider.deleteConsistencyLevel(this.env));
-        tenantInfoMapper.setDefaultGetOptions(OptionProvider.readConsistencyLevel(this.env));
-        tenantInfoMapper.setDefaultSaveOptions(OptionProvider.writeConsistencyLevel(this.env));
-        final TenantInfo tenantInfo = tenantInfoMapper.get(identifier);
-        Assert.notNull(tenantInfo, "Tenant [" + identifier + "] unknown!");
-        return this.getSession(tenantInfo.getClusterName(), tenantInfo.getContactPoints(), tenantInfo.getKeyspace());
+        this.checkOpen();
+        final TenantHandle tenantHandle = this.tenantHandleMemoizer.computeIfAbsent(identifier, this::createTenantHandle);
+        Assert.notNull(tenantHandle, "Tenant [" + identifier + "] unknown!");
+        return tenantHandle;
+    }
+
+    public void runAs(@Nonnull final String identifier, @Nonnull final Runnable runnable) {
+        Assert.notNull(runnable, "A runnable must be given!");
+        this.callAs(identifier, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    // binds the resolved handle instead of the plain identifier, so calls within skip the lookup
+    public <V> V callAs(@Nonnull final String identifier, @Nonnull final Supplier<V> supplier) {
+        Assert.notNull(supplier, "A supplier must be given!");
+        return TenantContextHolder.callAs(this.getTenantHandle(identifier), supplier);
+    }
+
+    public void refreshTenant(@Nonnull final String identifier) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        this.updateTenantInfo(identifier, this.getTenantInfoMapper().get(identifier));
+    }
+
+    public void refreshTenants() {
+        final HashMap<String, TenantInfo> currentTenantInfos = new HashMap<>();
+        this.getTenantInfos().forEach(tenantInfo -> currentTenantInfos.put(tenantInfo.getIdentifier(), tenantInfo));
+        this.tenantHandles.values().forEach(tenantHandle ->
+                this.updateTenantInfo(tenantHandle.getIdentifier(), currentTenantInfos.get(tenantHandle.getIdentifier())));
+    }
+
+    public void startTenantRefresh(final long interval, @Nonnull final TimeUnit unit) {
+        Assert.isTrue(interval > 0L, "An interval must be greater than zero!");
+        Assert.notNull(unit, "A time unit must be given!");
+        this.scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                this.refreshTenants();
+            } catch (final RuntimeException rex) {
+                this.logger.warn("Could not refresh tenants.", rex);
+            }
+        }, interval, interval, unit);
+    }
+
+    public void addTenantChangeListener(@Nonnull final Consumer<String> tenantChangeListener) {
+        Assert.notNull(tenantChangeListener, "A tenant change listener must be given!");
+        this.tenantChangeListeners.add(tenantChangeListener);
+    }
+
+    @Nonnull
+    public List<TenantInfo> getTenantInfos() {
+        final Statement statement = QueryBuilder.select().all().from(this.adminKeyspace, TenantInfo.TABLE_NAME)
+                .setConsistencyLevel(ConsistencyLevel.valueOf(
+                        this.env.getProperty(CassandraConnectorConstants.CONSISTENCY_LEVEL_READ_PROP,
+                                CassandraConnectorConstants.CONSISTENCY_LEVEL_PROP_DEFAULT)));
+        return this.getTenantInfoMapper().map(this.getAdminSession().execute(statement)).all();
     }
 
     @Nonnull
@@ -120,33 +288,209 @@ public final class CassandraSessionProvider {
         Assert.hasText(contactPoints, "At least one contact point must be given!");
         Assert.notNull(keyspace, "A keyspace must be given!");
         Assert.hasText(keyspace, "A keyspace must be given!");
+        this.checkOpen();
+
+        final ClusterKey clusterKey = this.getClusterKey(clusterName, contactPoints);
+        final CircuitBreaker clusterCircuitBreaker = this.getClusterCircuitBreaker(clusterKey);
+        clusterCircuitBreaker.check();
 
-        this.sessionCache.computeIfAbsent(keyspace, (sessionKey) -> {
+        final Cluster cluster;
+        try {
+            cluster = this.clusterMemoizer.computeIfAbsent(clusterKey, this::createCluster);
+        } catch (final IllegalArgumentException iaex) {
+            clusterCircuitBreaker.recordFailure(false);
+            throw iaex;
+        }
+
+        final ClusterKey primaryClusterKey = this.primaryClusterKeys.getOrDefault(cluster, clusterKey);
+        this.clusterCircuitBreakers.get(cluster).check();
+        final CircuitBreaker keyspaceCircuitBreaker = this.getKeyspaceCircuitBreaker(primaryClusterKey, keyspace);
+        keyspaceCircuitBreaker.check();
+
+        final Session session = this.sessionMemoizer.computeIfAbsent(new SessionKey(cluster, keyspace), (sessionKey) -> {
             this.logger.info("Create new session for keyspace [" + keyspace + "].");
 
-            this.clusterCache.computeIfAbsent(clusterName, (clusterKey) -> {
-                final String[] contactPointsAsArray = contactPoints.split(",");
-                for (int i = 0; i < contactPointsAsArray.length; i++) {
-                    contactPointsAsArray[i] = contactPointsAsArray[i].trim();
-                }
-                final Cluster cluster = Cluster.builder()
-                        .withClusterName(clusterName)
-                        .withPort(
-                                Integer.valueOf(this.env.getProperty(CassandraConnectorConstants.CASSANDRA_PORT_PROP,
-                                        CassandraConnectorConstants.CASSANDRA_PORT_DEFAULT))
-                        )
-                        .addContactPoints(contactPointsAsArray)
-                        .build();
-                return cluster;
-            });
             try {
-                return this.clusterCache.get(clusterName).connect(keyspace);
+                return cluster.connect(keyspace);
             } catch (final InvalidQueryException iqex) {
                 throw new IllegalArgumentException("Could not connect keyspace!", iqex);
+            } catch (final NoHostAvailableException nhaex) {
+                keyspaceCircuitBreaker.recordFailure(false);
+                throw nhaex;
             }
         });
+        this.keyspaceCircuitBreakers.putIfAbsent(session, keyspaceCircuitBreaker);
+        return session;
+    }
+
+    public void checkAvailable(@Nonnull final Session session) {
+        Assert.notNull(session, "A session must be given!");
+        final CircuitBreaker clusterCircuitBreaker = this.clusterCircuitBreakers.get(session.getCluster());
+        if (clusterCircuitBreaker != null) {
+            clusterCircuitBreaker.check();
+        }
+        final CircuitBreaker keyspaceCircuitBreaker = this.keyspaceCircuitBreakers.get(session);
+        if (keyspaceCircuitBreaker != null) {
+            keyspaceCircuitBreaker.check();
+        }
+    }
+
+    @Nonnull
+    public CircuitBreakerRegistry getCircuitBreakerRegistry() {
+        return this.circuitBreakerRegistry;
+    }
+
+    @Nonnull
+    public QueryDiagnostics getQueryDiagnostics() {
+        return this.queryDiagnostics;
+    }
+
+    @Nonnull
+    public UsageAccountant getUsageAccountant() {
+        return this.usageAccountant;
+    }
+
+    Environment getEnvironment() {
+        return this.env;
+    }
+
+    @Nonnull
+    public Cluster getCluster(@Nonnull final String clusterName, @Nonnull final String contactPoints) {
+        Assert.notNull(clusterName, "A cluster name must be given!");
+        Assert.hasText(clusterName, "A cluster name must be given!");
+        Assert.notNull(contactPoints, "At least one contact point must be given!");
+        Assert.hasText(contactPoints, "At least one contact point must be given!");
+
+        return this.clusterMemoizer.computeIfAbsent(this.getClusterKey(clusterName, contactPoints), this::createCluster);
+    }
+
+    private ClusterKey getClusterKey(final String clusterName, final String contactPoints) {
+        return this.clusterKeyCache.computeIfAbsent(clusterName + "|" + contactPoints,
+                (key) -> new ClusterKey(clusterName, contactPoints, this.port));
+    }
+
+    private Cluster createCluster(final ClusterKey clusterKey) {
+        final Cluster cluster = Cluster.builder()
+                .withClusterName(clusterKey.getClusterName())
+                .withPort(clusterKey.getPort())
+                .addContactPoints(clusterKey.getContactPoints())
+                .withNettyOptions(this.nettyOptions)
+                .withQueryOptions(new QueryOptions().setConsistencyLevel(this.defaultConsistencyLevel))
+                .withCodecRegistry(new CodecRegistry().register(this.codecs))
+                .build();
+        try {
+            cluster.init();
+        } catch (final NoHostAvailableException nhaex) {
+            cluster.close();
+            throw new IllegalArgumentException("Could not connect cluster!", nhaex);
+        }
+
+        // contact points spelled differently, or different names used for the same ring, share one cluster instance
+        for (final Cluster knownCluster : this.getKnownClusters()) {
+            if (this.isSameRing(knownCluster, cluster)) {
+                this.logger.info("Cluster [" + clusterKey + "] is served by known cluster [" + knownCluster.getClusterName() + "].");
+                cluster.closeAsync();
+                return knownCluster;
+            }
+        }
+
+        this.logger.info("Create new cluster [" + clusterKey + "].");
+        final CircuitBreaker clusterCircuitBreaker = this.getClusterCircuitBreaker(clusterKey);
+        this.primaryClusterKeys.put(cluster, clusterKey);
+        this.clusterCircuitBreakers.put(cluster, clusterCircuitBreaker);
+        cluster.register(new HealthTracker(clusterCircuitBreaker,
+                (keyspace) -> this.getKeyspaceCircuitBreaker(clusterKey, keyspace)));
+        cluster.register(this.queryDiagnostics.newLatencyTracker(cluster));
+        cluster.register(this.usageAccountant.newLatencyTracker(cluster));
+        return cluster;
+    }
+
+    private TenantHandle resolveTenantHandle(final Cluster cluster, final String keyspace) {
+        // called for every request by the latency trackers, so no scan over all tenants
+        final ConcurrentHashMap<String, ConcurrentHashMap<String, TenantHandle>> tenantHandlesOfCluster =
+                this.tenantHandlesByKeyspace.get(cluster);
+        final ConcurrentHashMap<String, TenantHandle> tenantHandlesOfKeyspace =
+                tenantHandlesOfCluster != null ? tenantHandlesOfCluster.get(keyspace) : null;
+        // requests on a keyspace shared by several tenants can not be told apart, so they are attributed to none of them
+        if (tenantHandlesOfKeyspace == null || tenantHandlesOfKeyspace.size() != 1) {
+            return null;
+        }
+        final Iterator<TenantHandle> tenantHandleIterator = tenantHandlesOfKeyspace.values().iterator();
+        return tenantHandleIterator.hasNext() ? tenantHandleIterator.next() : null;
+    }
+
+    private void publish(final TenantHandle tenantHandle) {
+        this.tenantHandles.put(tenantHandle);
+        this.tenantHandlesByKeyspace.computeIfAbsent(tenantHandle.getSession().getCluster(), cluster -> new ConcurrentHashMap<>())
+                .computeIfAbsent(tenantHandle.getKeyspace(), keyspace -> new ConcurrentHashMap<>())
+                .put(tenantHandle.getIdentifier(), tenantHandle);
+    }
+
+    private void unpublish(final TenantHandle tenantHandle) {
+        final ConcurrentHashMap<String, ConcurrentHashMap<String, TenantHandle>> tenantHandlesOfCluster =
+                this.tenantHandlesByKeyspace.get(tenantHandle.getSession().getCluster());
+        final ConcurrentHashMap<String, TenantHandle> tenantHandlesOfKeyspace =
+                tenantHandlesOfCluster != null ? tenantHandlesOfCluster.get(tenantHandle.getKeyspace()) : null;
+        if (tenantHandlesOfKeyspace != null) {
+            tenantHandlesOfKeyspace.remove(tenantHandle.getIdentifier(), tenantHandle);
+        }
+    }
+
+    private CircuitBreaker getClusterCircuitBreaker(final ClusterKey clusterKey) {
+        return this.circuitBreakerRegistry.getCircuitBreaker("cluster:" + clusterKey,
+                () -> this.probe(clusterKey, null));
+    }
+
+    private CircuitBreaker getKeyspaceCircuitBreaker(final ClusterKey clusterKey, final String keyspace) {
+        return this.circuitBreakerRegistry.getCircuitBreaker("keyspace:" + clusterKey + "/" + keyspace,
+                () -> this.probe(clusterKey, keyspace));
+    }
+
+    private boolean probe(final ClusterKey clusterKey, final String keyspace) {
+        final Cluster cluster = this.clusterMemoizer.computeIfAbsent(clusterKey, this::createCluster);
+        final SimpleStatement probeStatement = new SimpleStatement("SELECT release_version FROM system.local");
+        final Session cachedSession = keyspace != null
+                ? this.sessionCache.get(new SessionKey(cluster, keyspace))
+                : this.sessionCache.entrySet().stream()
+                        .filter(entry -> entry.getKey().getCluster() == cluster)
+                        .map(Map.Entry::getValue)
+                        .findAny()
+                        .orElse(null);
+        if (cachedSession != null) {
+            return cachedSession.execute(probeStatement).one() != null;
+        }
+        try (final Session probeSession = keyspace != null ? cluster.connect(keyspace) : cluster.connect()) {
+            return probeSession.execute(probeStatement).one() != null;
+        }
+    }
 
-        return this.sessionCache.get(keyspace);
+    private boolean isSameRing(final Cluster knownCluster, final Cluster cluster) {
+        if (!Objects.equals(knownCluster.getMetadata().getClusterName(), cluster.getMetadata().getClusterName())) {
+            return false;
+        }
+        final Set<InetSocketAddress> knownAddresses = knownCluster.getMetadata().getAllHosts().stream()
+                .map(Host::getSocketAddress)
+                .collect(Collectors.toSet());
+        return cluster.getMetadata().getAllHosts().stream()
+                .map(Host::getSocketAddress)
+                .anyMatch(knownAddresses::contains);
+    }
+
+    private Set<Cluster> getKnownClusters() {
+        final Set<Cluster> knownClusters = Collections.newSetFromMap(new IdentityHashMap<>());
+        knownClusters.addAll(this.clusterCache.values());
+        return knownClusters;
+    }
+
+    @Nonnull
+    public Session getClusterSession(@Nonnull final String clusterName, @Nonnull final String contactPoints) {
+        this.checkOpen();
+        final Cluster cluster = this.getCluster(clusterName, contactPoints);
+        // not bound to a keyspace, e.g. to create keyspaces, one per cluster shared by all callers
+        return this.clusterSessionCache.computeIfAbsent(cluster, (sessionKey) -> {
+            this.logger.info("Create new session for cluster [" + cluster.getClusterName() + "].");
+            return cluster.connect();
+        });
     }
 
     @Nonnull
@@ -165,18 +509,191 @@ public final class CassandraSessionProvider {
         return this.adminSessionMappingManager;
     }
 
+    public void saveTenantInfo(@Nonnull final TenantInfo tenantInfo) {
+        Assert.notNull(tenantInfo, "Tenant info must be given!");
+        Assert.hasText(tenantInfo.getIdentifier(), "A tenant identifier must be given!");
+        Assert.hasText(tenantInfo.getClusterName(), "A cluster name must be given!");
+        Assert.hasText(tenantInfo.getContactPoints(), "At least one contact point must be given!");
+        Assert.hasText(tenantInfo.getKeyspace(), "A keyspace must be given!");
+        this.getTenantInfoMapper().save(tenantInfo);
+    }
+
+    private TenantHandle createTenantHandle(final String identifier) {
+        this.logger.info("Create new handle for tenant [" + identifier + "].");
+        final TenantInfo tenantInfo = this.getTenantInfoMapper().get(identifier);
+        if (tenantInfo == null) {
+            return null;
+        }
+        final int index = this.tenantHandles.indexOf(identifier);
+        try {
+            return this.newTenantHandle(index, tenantInfo);
+        } catch (final RuntimeException rex) {
+            this.tenantHandles.releaseIndex(index);
+            throw rex;
+        }
+    }
+
+    private TenantHandle newTenantHandle(final int index, final TenantInfo tenantInfo) {
+        final Session session = this.getSession(tenantInfo.getClusterName(), tenantInfo.getContactPoints(), tenantInfo.getKeyspace());
+        return new TenantHandle(index, tenantInfo, session, new MappingManager(session),
+                this.clusterCircuitBreakers.get(session.getCluster()), this.keyspaceCircuitBreakers.get(session), this.env);
+    }
+
+    private void updateTenantInfo(final String identifier, final TenantInfo currentTenantInfo) {
+        final TenantHandle cachedTenantHandle = this.tenantHandles.get(identifier);
+        if (cachedTenantHandle == null) {
+            return;
+        }
+        if (this.isSameRoute(cachedTenantHandle.getTenantInfo(), currentTenantInfo)) {
+            this.publish(cachedTenantHandle.withTenantInfo(currentTenantInfo));
+            return;
+        }
+
+        this.logger.info("Route of tenant [" + identifier + "] changed, switch to keyspace ["
+                + (currentTenantInfo != null ? currentTenantInfo.getKeyspace() : null) + "].");
+
+        if (currentTenantInfo != null) {
+            try {
+                this.publish(this.newTenantHandle(cachedTenantHandle.getIndex(), currentTenantInfo));
+            } catch (final RuntimeException rex) {
+                this.logger.warn("Could not connect new route of tenant [" + identifier + "], will retry on next access.", rex);
+                this.tenantHandles.remove(identifier);
+            }
+        } else {
+            this.tenantHandles.remove(identifier);
+        }
+        this.unpublish(cachedTenantHandle);
+
+        this.tenantChangeListeners.forEach(tenantChangeListener -> tenantChangeListener.accept(identifier));
+
+        final Session cachedSession = cachedTenantHandle.getSession();
+        final boolean keyspaceInUse = this.tenantHandles.values().stream()
+                .anyMatch(tenantHandle -> tenantHandle.getSession() == cachedSession);
+        if (!keyspaceInUse
+                && this.sessionCache.remove(new SessionKey(cachedSession.getCluster(), cachedTenantHandle.getKeyspace()), cachedSession)) {
+            this.keyspaceCircuitBreakers.remove(cachedSession);
+            // callers may have resolved the old session without having sent their statements yet, which no
+            // in-flight count reflects, so the old session is left alone for a grace period before draining starts
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.drainTimeout);
+            this.scheduledExecutorService.schedule(() -> this.drain(cachedSession, deadline),
+                    Math.min(this.drainGracePeriod, this.drainTimeout), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean isSameRoute(final TenantInfo tenantInfo, final TenantInfo otherTenantInfo) {
+        if (otherTenantInfo == null || !Objects.equals(tenantInfo.getKeyspace(), otherTenantInfo.getKeyspace())) {
+            return false;
+        }
+        final ClusterKey clusterKey = this.getClusterKey(tenantInfo.getClusterName(), tenantInfo.getContactPoints());
+        final ClusterKey otherClusterKey = this.getClusterKey(otherTenantInfo.getClusterName(), otherTenantInfo.getContactPoints());
+        if (clusterKey.equals(otherClusterKey)) {
+            return true;
+        }
+        final Cluster cluster = this.clusterCache.get(clusterKey);
+        return cluster != null && cluster == this.clusterCache.get(otherClusterKey);
+    }
+
+    private void drain(final Session session, final long deadline) {
+        final Session.State state = session.getState();
+        final int inFlightQueries = state.getConnectedHosts().stream().mapToInt(state::getInFlightQueries).sum();
+        if (inFlightQueries == 0 || System.nanoTime() > deadline) {
+            this.logger.info("Close drained session for keyspace [" + session.getLoggedKeyspace() + "] with ["
+                    + inFlightQueries + "] in-flight queries.");
+            session.closeAsync();
+        } else {
+            this.scheduledExecutorService.schedule(() -> this.drain(session, deadline), 100L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Mapper<TenantInfo> getTenantInfoMapper() {
+        final Mapper<TenantInfo> tenantInfoMapper = this.getAdminSessionMappingManager().mapper(TenantInfo.class);
+        tenantInfoMapper.setDefaultDeleteOptions(OptionProvider.deleteConsistencyLevel(this.env));
+        tenantInfoMapper.setDefaultGetOptions(OptionProvider.readConsistencyLevel(this.env));
+        tenantInfoMapper.setDefaultSaveOptions(OptionProvider.writeConsistencyLevel(this.env));
+        return tenantInfoMapper;
+    }
+
     public void touchAdminSession() {
         this.getAdminSession();
     }
 
     @PreDestroy
     private void cleanUp() {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.shutdownTimeout);
         this.logger.info("Clean up cluster connections.");
 
-        this.sessionCache.values().forEach(Session::close);
+        // the final usage export may still need the admin session, afterwards new sessions and tenants are refused
+        this.usageAccountant.shutdown();
+        this.closed = true;
+        this.scheduledExecutorService.shutdownNow();
+        this.circuitBreakerRegistry.shutdown();
+        this.queryDiagnostics.shutdown();
+
+        final List<Session> sessions = new ArrayList<>(this.sessionCache.values());
+        final List<Session> clusterSessions = new ArrayList<>(this.clusterSessionCache.values());
+        this.awaitDrained(sessions, deadline);
+
+        this.tenantHandles.clear();
+        this.tenantHandlesByKeyspace.clear();
         this.sessionCache.clear();
+        this.clusterSessionCache.clear();
 
-        this.clusterCache.values().forEach(Cluster::close);
+        // all sessions and clusters close concurrently, a cluster closes its remaining sessions as well
+        final LinkedHashMap<String, CloseFuture> closeFutures = new LinkedHashMap<>();
+        sessions.forEach(session -> closeFutures.put("session for keyspace [" + session.getLoggedKeyspace() + "]", session.closeAsync()));
+        clusterSessions.forEach(session -> closeFutures.put("session for cluster [" + session.getCluster().getClusterName() + "]",
+                session.closeAsync()));
+        this.getKnownClusters().forEach(cluster -> closeFutures.put("cluster [" + cluster.getClusterName() + "]", cluster.closeAsync()));
         this.clusterCache.clear();
+
+        final ArrayList<String> unclosed = new ArrayList<>();
+        closeFutures.forEach((name, closeFuture) -> {
+            try {
+                closeFuture.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (final TimeoutException | ExecutionException ex) {
+                unclosed.add(name);
+                closeFuture.force();
+            } catch (final InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                unclosed.add(name);
+                closeFuture.force();
+            }
+        });
+        if (!unclosed.isEmpty()) {
+            this.logger.warn("Forced close of " + unclosed + " after shutdown timeout of [" + this.shutdownTimeout + "] ms.");
+        }
+
+        this.nettyOptions.shutdown(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Session provider is shut down!");
+        }
+    }
+
+    private void awaitDrained(final List<Session> sessions, final long deadline) {
+        int inFlightQueries = this.countInFlightQueries(sessions);
+        while (inFlightQueries > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(50L);
+            } catch (final InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            inFlightQueries = this.countInFlightQueries(sessions);
+        }
+        if (inFlightQueries > 0) {
+            this.logger.warn("Close sessions with [" + inFlightQueries + "] in-flight queries after shutdown timeout.");
+        }
+    }
+
+    private int countInFlightQueries(final List<Session> sessions) {
+        int inFlightQueries = 0;
+        for (final Session session : sessions) {
+            final Session.State state = session.getState();
+            inFlightQueries += state.getConnectedHosts().stream().mapToInt(state::getInFlightQueries).sum();
+        }
+        return inFlightQueries;
     }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final Logger logger;
+    private final CircuitBreakerRegistry.Settings settings;
+    private final BooleanSupplier probe;
+    private final AtomicReference<State> state;
+    private final AtomicReference<Window> window;
+    private volatile long openedAt;
+
+    CircuitBreaker(final String name, final Logger logger, final CircuitBreakerRegistry.Settings settings,
+                   final BooleanSupplier probe) {
+        super();
+        this.name = name;
+        this.logger = logger;
+        this.settings = settings;
+        this.probe = probe;
+        this.state = new AtomicReference<>(State.CLOSED);
+        this.window = new AtomicReference<>(new Window(System.nanoTime()));
+    }
+
+    @Nonnull
+    public String getName() {
+        return this.name;
+    }
+
+    @Nonnull
+    public State getState() {
+        return this.state.get();
+    }
+
+    public boolean isCallPermitted() {
+        return this.state.get() == State.CLOSED;
+    }
+
+    public void check() {
+        if (!this.isCallPermitted()) {
+            throw new CircuitOpenException(this.name);
+        }
+    }
+
+    public void recordSuccess() {
+        this.currentWindow().requests.incrementAndGet();
+    }
+
+    public void recordFailure(final boolean timeout) {
+        final Window currentWindow = this.currentWindow();
+        final long requests = currentWindow.requests.incrementAndGet();
+        final long failures = currentWindow.failures.incrementAndGet();
+        final long timeouts = timeout ? currentWindow.timeouts.incrementAndGet() : currentWindow.timeouts.get();
+
+        if (requests >= this.settings.minimumRequests
+                && (failures >= requests * this.settings.failureRate || timeouts >= requests * this.settings.timeoutRate)
+                && this.state.compareAndSet(State.CLOSED, State.OPEN)) {
+            this.openedAt = System.nanoTime();
+            this.logger.warn("Circuit [" + this.name + "] opened after [" + failures + "] failures and ["
+                    + timeouts + "] timeouts of [" + requests + "] requests.");
+        }
+    }
+
+    void probeIfDue() {
+        if (this.state.get() != State.OPEN
+                || System.nanoTime() - this.openedAt < this.settings.openDurationNanos
+                || !this.state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            return;
+        }
+
+        boolean healthy;
+        try {
+            healthy = this.probe.getAsBoolean();
+        } catch (final RuntimeException rex) {
+            healthy = false;
+        }
+
+        if (healthy) {
+            this.window.set(new Window(System.nanoTime()));
+            this.state.set(State.CLOSED);
+            this.logger.info("Circuit [" + this.name + "] closed, probe succeeded.");
+        } else {
+            this.openedAt = System.nanoTime();
+            this.state.set(State.OPEN);
+        }
+    }
+
+    private Window currentWindow() {
+        final Window currentWindow = this.window.get();
+        final long now = System.nanoTime();
+        if (now - currentWindow.start <= this.settings.windowNanos) {
+            return currentWindow;
+        }
+        this.window.compareAndSet(currentWindow, new Window(now));
+        return this.window.get();
+    }
+
+    private static final class Window {
+
+        private final long start;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private Window(final long start) {
+            super();
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+@ManagedResource(objectName = "lab.mage.connector:name=CircuitBreakerRegistry",
+        description = "Health of the Cassandra clusters and keyspaces in use")
+public final class CircuitBreakerRegistry {
+
+    private final Logger logger;
+    private final Settings settings;
+    private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers;
+    private final ScheduledExecutorService scheduledExecutorService;
+
+    public CircuitBreakerRegistry(@Nonnull final Environment env, @Nonnull final Logger logger) {
+        super();
+        Assert.notNull(env, "An environment must be given!");
+        Assert.notNull(logger, "A logger must be given!");
+        this.logger = logger;
+        this.settings = new Settings(env);
+        this.circuitBreakers = new ConcurrentHashMap<>();
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mage-circuit-probe-");
+        threadFactory.setDaemon(true);
+        this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.scheduledExecutorService.scheduleWithFixedDelay(
+                () -> this.circuitBreakers.values().forEach(CircuitBreaker::probeIfDue), 1L, 1L, TimeUnit.SECONDS);
+    }
+
+    @Nonnull
+    public CircuitBreaker getCircuitBreaker(@Nonnull final String name, @Nonnull final BooleanSupplier probe) {
+        Assert.notNull(name, "A name must be given!");
+        Assert.notNull(probe, "A probe must be given!");
+        return this.circuitBreakers.computeIfAbsent(name, (key) -> new CircuitBreaker(name, this.logger, this.settings, probe));
+    }
+
+    @ManagedAttribute(description = "State of all circuits")
+    public Map<String, String> getStates() {
+        final TreeMap<String, String> states = new TreeMap<>();
+        this.circuitBreakers.forEach((name, circuitBreaker) -> states.put(name, circuitBreaker.getState().name()));
+        return states;
+    }
+
+    @ManagedAttribute(description = "True if no circuit is open")
+    public boolean isHealthy() {
+        return this.circuitBreakers.values().stream().allMatch(CircuitBreaker::isCallPermitted);
+    }
+
+    void shutdown() {
+        this.scheduledExecutorService.shutdownNow();
+    }
+
+    static final class Settings {
+
+        final double failureRate;
+        final double timeoutRate;
+        final long minimumRequests;
+        final long windowNanos;
+        final long openDurationNanos;
+
+        private Settings(final Environment env) {
+            super();
+            this.failureRate = Double.valueOf(env.getProperty(CassandraConnectorConstants.BREAKER_FAILURE_RATE_PROP,
+                    CassandraConnectorConstants.BREAKER_FAILURE_RATE_PROP_DEFAULT));
+            this.timeoutRate = Double.valueOf(env.getProperty(CassandraConnectorConstants.BREAKER_TIMEOUT_RATE_PROP,
+                    CassandraConnectorConstants.BREAKER_TIMEOUT_RATE_PROP_DEFAULT));
+            this.minimumRequests = Long.valueOf(env.getProperty(CassandraConnectorConstants.BREAKER_MINIMUM_REQUESTS_PROP,
+                    CassandraConnectorConstants.BREAKER_MINIMUM_REQUESTS_PROP_DEFAULT));
+            this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(env.getProperty(
+                    CassandraConnectorConstants.BREAKER_WINDOW_PROP, CassandraConnectorConstants.BREAKER_WINDOW_PROP_DEFAULT)));
+            this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(env.getProperty(
+                    CassandraConnectorConstants.BREAKER_OPEN_DURATION_PROP, CassandraConnectorConstants.BREAKER_OPEN_DURATION_PROP_DEFAULT)));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+final class ClusterKey {
+
+    private final String clusterName;
+    private final SortedSet<String> contactPoints;
+    private final int port;
+
+    ClusterKey(final String clusterName, final String contactPoints, final int port) {
+        super();
+        this.clusterName = clusterName;
+        final TreeSet<String> normalizedContactPoints = new TreeSet<>();
+        Arrays.stream(contactPoints.split(","))
+                .map(String::trim)
+                .filter(contactPoint -> !contactPoint.isEmpty())
+                .map(String::toLowerCase)
+                .forEach(normalizedContactPoints::add);
+        this.contactPoints = Collections.unmodifiableSortedSet(normalizedContactPoints);
+        this.port = port;
+    }
+
+    String getClusterName() {
+        return this.clusterName;
+    }
+
+    String[] getContactPoints() {
+        return this.contactPoints.toArray(new String[this.contactPoints.size()]);
+    }
+
+    int getPort() {
+        return this.port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ClusterKey that = (ClusterKey) o;
+
+        return port == that.port
+                && clusterName.equals(that.clusterName)
+                && contactPoints.equals(that.contactPoints);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = clusterName.hashCode();
+        result = 31 * result + contactPoints.hashCode();
+        result = 31 * result + port;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return clusterName + contactPoints + ":" + port;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.exceptions.BootstrappingException;
+import com.datastax.driver.core.exceptions.BusyConnectionException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Update;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.TenantContextHolder;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class CounterAggregator {
+
+    // one stripe per cache line, so threads incrementing the same counter do not share a line
+    private static final int PADDING = 8;
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1));
+
+    private final Environment env;
+    private final Logger logger;
+    private final CassandraSessionProvider cassandraSessionProvider;
+    private final ConcurrentHashMap<CounterKey, Cell> cells;
+    private final ConcurrentHashMap<StatementKey, CounterStatement> statementCache;
+    private final Memoizer<StatementKey, CounterStatement> statementMemoizer;
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final int batchSize;
+    private final int concurrency;
+    private final ConsistencyLevel consistencyLevel;
+
+    public CounterAggregator(@Nonnull final Environment env, @Nonnull final Logger logger,
+                             @Nonnull final CassandraSessionProvider cassandraSessionProvider) {
+        super();
+        Assert.notNull(env, "An environment must be given!");
+        Assert.notNull(logger, "A logger must be given!");
+        Assert.notNull(cassandraSessionProvider, "A Cassandra session provider must be given!");
+        this.env = env;
+        this.logger = logger;
+        this.cassandraSessionProvider = cassandraSessionProvider;
+        this.cells = new ConcurrentHashMap<>();
+        this.statementCache = new ConcurrentHashMap<>();
+        this.statementMemoizer = new Memoizer<>(this.statementCache);
+        this.batchSize = Integer.valueOf(this.env.getProperty(CassandraConnectorConstants.COUNTER_BATCH_SIZE_PROP,
+                CassandraConnectorConstants.COUNTER_BATCH_SIZE_PROP_DEFAULT));
+        this.concurrency = Integer.valueOf(this.env.getProperty(CassandraConnectorConstants.COUNTER_CONCURRENCY_PROP,
+                CassandraConnectorConstants.COUNTER_CONCURRENCY_PROP_DEFAULT));
+        this.consistencyLevel = ConsistencyLevel.valueOf(this.env.getProperty(
+                CassandraConnectorConstants.CONSISTENCY_LEVEL_WRITE_PROP, CassandraConnectorConstants.CONSISTENCY_LEVEL_PROP_DEFAULT));
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mage-counter-flush-");
+        threadFactory.setDaemon(true);
+        this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        final long flushInterval = Long.valueOf(this.env.getProperty(CassandraConnectorConstants.COUNTER_FLUSH_INTERVAL_PROP,
+                CassandraConnectorConstants.COUNTER_FLUSH_INTERVAL_PROP_DEFAULT));
+        this.scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                this.flush();
+            } catch (final RuntimeException rex) {
+                this.logger.warn("Could not flush counters.", rex);
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        this.cassandraSessionProvider.addTenantChangeListener(
+                identifier -> this.statementCache.keySet().removeIf(statementKey -> statementKey.identifier.equals(identifier)));
+    }
+
+    public void increment(@Nonnull final String table, @Nonnull final String counterColumn, final long delta,
+                          @Nonnull final Object... primaryKey) {
+        if (TenantContextHolder.getIdentifier().isPresent()) {
+            final String identifier = TenantContextHolder.getIdentifier().get();
+            this.increment(identifier, table, counterColumn, delta, primaryKey);
+        } else {
+            throw new IllegalArgumentException("Could not find tenant identifier, make sure you set an identifier using TenantContextHolder.");
+        }
+    }
+
+    public void increment(@Nonnull final String identifier, @Nonnull final String table, @Nonnull final String counterColumn,
+                          final long delta, @Nonnull final Object... primaryKey) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(table, "A table must be given!");
+        Assert.hasText(table, "A table must be given!");
+        Assert.notNull(counterColumn, "A counter column must be given!");
+        Assert.hasText(counterColumn, "A counter column must be given!");
+        Assert.notEmpty(primaryKey, "A primary key must be given!");
+
+        final StatementKey statementKey = new StatementKey(identifier, table, counterColumn);
+        final CounterStatement counterStatement = this.getCounterStatement(statementKey);
+        Assert.isTrue(primaryKey.length == counterStatement.primaryKeySize,
+                "Table [" + table + "] expects [" + counterStatement.primaryKeySize + "] primary key values!");
+
+        this.add(new CounterKey(statementKey, Arrays.asList(primaryKey), counterStatement.partitionKeySize), delta);
+    }
+
+    public synchronized void flush() {
+        final HashMap<StatementKey, Map<List<Object>, List<Pending>>> partitions = new HashMap<>();
+        this.cells.forEach((counterKey, cell) -> {
+            final long delta = cell.drain();
+            if (delta == 0L) {
+                // idle for a whole interval, retire the cell so the map only holds active counters
+                cell.retired = true;
+                this.cells.remove(counterKey, cell);
+                final long leftover = cell.drain();
+                if (leftover != 0L) {
+                    this.add(counterKey, leftover);
+                }
+                return;
+            }
+            partitions.computeIfAbsent(counterKey.statementKey, (key) -> new HashMap<>())
+                    .computeIfAbsent(counterKey.primaryKey.subList(0, counterKey.partitionKeySize), (key) -> new ArrayList<>())
+                    .add(new Pending(counterKey, delta));
+        });
+
+        final Semaphore window = new Semaphore(this.concurrency);
+        partitions.forEach((statementKey, partition) -> {
+            final Session session;
+            final CounterStatement counterStatement;
+            try {
+                session = this.cassandraSessionProvider.getTenantSession(statementKey.identifier);
+                counterStatement = this.getCounterStatement(statementKey);
+            } catch (final RuntimeException rex) {
+                this.logger.warn("Could not flush counters of tenant [" + statementKey.identifier + "] and table ["
+                        + statementKey.table + "], will retry.", rex);
+                partition.values().forEach(this::restore);
+                return;
+            }
+
+            partition.values().forEach(pendings -> {
+                for (int i = 0; i < pendings.size(); i += this.batchSize) {
+                    final List<Pending> chunk = pendings.subList(i, Math.min(pendings.size(), i + this.batchSize));
+                    window.acquireUninterruptibly();
+                    this.execute(session, counterStatement, chunk, window);
+                }
+            });
+        });
+        window.acquireUninterruptibly(this.concurrency);
+    }
+
+    @PreDestroy
+    private void cleanUp() {
+        this.scheduledExecutorService.shutdown();
+        try {
+            this.scheduledExecutorService.awaitTermination(1L, TimeUnit.MINUTES);
+        } catch (final InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+        this.logger.info("Flush [" + this.cells.size() + "] pending counters.");
+        this.flush();
+    }
+
+    private void execute(final Session session, final CounterStatement counterStatement, final List<Pending> chunk,
+                         final Semaphore window) {
+        final Statement statement;
+        if (chunk.size() == 1) {
+            statement = counterStatement.bind(chunk.get(0));
+        } else {
+            final BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.COUNTER);
+            chunk.forEach(pending -> batchStatement.add(counterStatement.bind(pending)));
+            statement = batchStatement;
+        }
+        statement.setConsistencyLevel(this.consistencyLevel);
+
+        Futures.addCallback(session.executeAsync(statement), new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(final ResultSet resultSet) {
+                window.release();
+            }
+
+            @Override
+            public void onFailure(final Throwable throwable) {
+                if (CounterAggregator.this.isDefinitelyNotApplied(throwable)) {
+                    CounterAggregator.this.logger.debug("Counter update rejected, will retry.", throwable);
+                    CounterAggregator.this.restore(chunk);
+                } else {
+                    // counter updates are not idempotent, retrying a write of unknown outcome could count twice
+                    CounterAggregator.this.logger.warn("Counter update of [" + chunk.size()
+                            + "] counters failed with unknown outcome, deltas are dropped.", throwable);
+                }
+                window.release();
+            }
+        });
+    }
+
+    private boolean isDefinitelyNotApplied(final Throwable throwable) {
+        if (throwable instanceof NoHostAvailableException) {
+            // a host may have received the write before its connection failed, only rejections on every host tried
+            // guarantee the deltas were not counted
+            return ((NoHostAvailableException) throwable).getErrors().values().stream()
+                    .allMatch(this::isRejected);
+        }
+        return this.isRejected(throwable);
+    }
+
+    private boolean isRejected(final Throwable throwable) {
+        return throwable instanceof UnavailableException
+                || throwable instanceof OverloadedException
+                || throwable instanceof BootstrappingException
+                || throwable instanceof BusyConnectionException;
+    }
+
+    private void restore(final List<Pending> pendings) {
+        pendings.forEach(pending -> this.add(pending.counterKey, pending.delta));
+    }
+
+    private void add(final CounterKey counterKey, final long delta) {
+        Cell cell = this.cells.computeIfAbsent(counterKey, (key) -> new Cell());
+        cell.add(delta);
+        // lost the race against a flush retiring the cell, move whatever it still holds to a fresh one
+        while (cell.retired) {
+            final long leftover = cell.drain();
+            if (leftover == 0L) {
+                return;
+            }
+            cell = this.cells.computeIfAbsent(counterKey, (key) -> new Cell());
+            cell.add(leftover);
+        }
+    }
+
+    private CounterStatement getCounterStatement(final StatementKey statementKey) {
+        return this.statementMemoizer.computeIfAbsent(statementKey, (key) -> {
+            final Session session = this.cassandraSessionProvider.getTenantSession(key.identifier);
+            final TableMetadata tableMetadata = session.getCluster().getMetadata()
+                    .getKeyspace(session.getLoggedKeyspace()).getTable(key.table);
+            Assert.notNull(tableMetadata, "Table [" + key.table + "] unknown!");
+
+            final Update update = QueryBuilder.update(key.table);
+            update.with(QueryBuilder.incr(key.counterColumn, QueryBuilder.bindMarker()));
+            tableMetadata.getPrimaryKey().forEach(column -> update.where(QueryBuilder.eq(column.getName(), QueryBuilder.bindMarker())));
+            return new CounterStatement(session.prepare(update), tableMetadata.getPartitionKey().size(),
+                    tableMetadata.getPrimaryKey().size());
+        });
+    }
+
+    private static final class Cell {
+
+        private final AtomicLongArray stripes;
+        private volatile boolean retired;
+
+        private Cell() {
+            super();
+            this.stripes = new AtomicLongArray(CounterAggregator.STRIPES * CounterAggregator.PADDING);
+        }
+
+        private void add(final long delta) {
+            final int stripe = (int) (Thread.currentThread().getId() & (CounterAggregator.STRIPES - 1));
+            this.stripes.addAndGet(stripe * CounterAggregator.PADDING, delta);
+        }
+
+        private long drain() {
+            long sum = 0L;
+            for (int stripe = 0; stripe < CounterAggregator.STRIPES; stripe++) {
+                sum += this.stripes.getAndSet(stripe * CounterAggregator.PADDING, 0L);
+            }
+            return sum;
+        }
+    }
+
+    private static final class StatementKey {
+
+        private final String identifier;
+        private final String table;
+        private final String counterColumn;
+
+        private StatementKey(final String identifier, final String table, final String counterColumn) {
+            super();
+            this.identifier = identifier;
+            this.table = table;
+            this.counterColumn = counterColumn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            StatementKey that = (StatementKey) o;
+
+            return identifier.equals(that.identifier) && table.equals(that.table) && counterColumn.equals(that.counterColumn);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(identifier, table, counterColumn);
+        }
+    }
+
+    private static final class CounterKey {
+
+        private final StatementKey statementKey;
+        private final List<Object> primaryKey;
+        private final int partitionKeySize;
+        private final int hashCode;
+
+        private CounterKey(final StatementKey statementKey, final List<Object> primaryKey, final int partitionKeySize) {
+            super();
+            this.statementKey = statementKey;
+            this.primaryKey = primaryKey;
+            this.partitionKeySize = partitionKeySize;
+            this.hashCode = 31 * statementKey.hashCode() + primaryKey.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CounterKey that = (CounterKey) o;
+
+            return statementKey.equals(that.statementKey) && primaryKey.equals(that.primaryKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class CounterStatement {
+
+        private final PreparedStatement preparedStatement;
+        private final int partitionKeySize;
+        private final int primaryKeySize;
+
+        private CounterStatement(final PreparedStatement preparedStatement, final int partitionKeySize, final int primaryKeySize) {
+            super();
+            this.preparedStatement = preparedStatement;
+            this.partitionKeySize = partitionKeySize;
+            this.primaryKeySize = primaryKeySize;
+        }
+
+        private Statement bind(final Pending pending) {
+            final Object[] values = new Object[this.primaryKeySize + 1];
+            values[0] = pending.delta;
+            for (int i = 0; i < this.primaryKeySize; i++) {
+                values[i + 1] = pending.counterKey.primaryKey.get(i);
+            }
+            return this.preparedStatement.bind(values);
+        }
+    }
+
+    private static final class Pending {
+
+        private final CounterKey counterKey;
+        private final long delta;
+
+        private Pending(final CounterKey counterKey, final long delta) {
+            super();
+            this.counterKey = counterKey;
+            this.delta = delta;
+        }
+    }
+}
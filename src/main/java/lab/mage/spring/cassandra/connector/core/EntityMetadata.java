@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.mapping.annotations.ClusteringColumn;
+import com.datastax.driver.mapping.annotations.Column;
+import com.datastax.driver.mapping.annotations.PartitionKey;
+import com.datastax.driver.mapping.annotations.Table;
+import com.datastax.driver.mapping.annotations.Transient;
+import lab.mage.spring.cassandra.connector.annotation.Lookup;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+public final class EntityMetadata<T> {
+
+    private static final ConcurrentHashMap<Class<?>, EntityMetadata<?>> CACHED_METADATA = new ConcurrentHashMap<>();
+
+    private final Class<T> type;
+    private final String keyspace;
+    private final String tableName;
+    private final List<Property> properties;
+    private final List<Property> partitionKey;
+    private final List<Property> clusteringColumns;
+    private final List<Property> lookups;
+    private final HashMap<String, Property> propertiesByColumn;
+
+    private EntityMetadata(final Class<T> type) {
+        super();
+        final Table table = type.getAnnotation(Table.class);
+        Assert.notNull(table, "Type [" + type.getSimpleName() + "] is not annotated with @Table!");
+        this.type = type;
+        this.keyspace = table.keyspace().isEmpty() ? null : table.keyspace();
+        this.tableName = table.name();
+
+        final ArrayList<Property> properties = new ArrayList<>();
+        for (final Field field : type.getDeclaredFields()) {
+            if (field.isSynthetic()
+                    || Modifier.isStatic(field.getModifiers())
+                    || field.isAnnotationPresent(Transient.class)) {
+                continue;
+            }
+            properties.add(new Property(field));
+        }
+        this.properties = Collections.unmodifiableList(properties);
+        this.partitionKey = Collections.unmodifiableList(properties.stream()
+                .filter(property -> property.partitionKeyPosition >= 0)
+                .sorted(Comparator.comparingInt(property -> property.partitionKeyPosition))
+                .collect(Collectors.toList()));
+        this.clusteringColumns = Collections.unmodifiableList(properties.stream()
+                .filter(property -> property.clusteringColumnPosition >= 0)
+                .sorted(Comparator.comparingInt(property -> property.clusteringColumnPosition))
+                .collect(Collectors.toList()));
+        Assert.notEmpty(this.partitionKey, "Type [" + type.getSimpleName() + "] does not declare a partition key!");
+        this.lookups = Collections.unmodifiableList(properties.stream()
+                .filter(property -> property.lookupTable != null)
+                .collect(Collectors.toList()));
+        this.lookups.forEach(property -> Assert.isTrue(!property.isPartitionKey() && !property.isClusteringColumn(),
+                "Lookup column [" + property.getColumnName() + "] must not be part of the primary key!"));
+        this.propertiesByColumn = new HashMap<>();
+        properties.forEach(property -> this.propertiesByColumn.put(property.getColumnName().toLowerCase(), property));
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMetadata<T> of(@Nonnull final Class<T> type) {
+        Assert.notNull(type, "A type must be given!");
+        return (EntityMetadata<T>) EntityMetadata.CACHED_METADATA.computeIfAbsent(type, EntityMetadata::new);
+    }
+
+    @Nonnull
+    public Class<T> getType() {
+        return this.type;
+    }
+
+    @Nonnull
+    public Optional<String> getKeyspace() {
+        return Optional.ofNullable(this.keyspace);
+    }
+
+    @Nonnull
+    public String getTableName() {
+        return this.tableName;
+    }
+
+    @Nonnull
+    public List<Property> getProperties() {
+        return this.properties;
+    }
+
+    @Nonnull
+    public List<Property> getPartitionKey() {
+        return this.partitionKey;
+    }
+
+    @Nonnull
+    public List<Property> getClusteringColumns() {
+        return this.clusteringColumns;
+    }
+
+    @Nonnull
+    public List<Property> getPrimaryKey() {
+        final ArrayList<Property> primaryKey = new ArrayList<>(this.partitionKey);
+        primaryKey.addAll(this.clusteringColumns);
+        return primaryKey;
+    }
+
+    @Nonnull
+    public List<Property> getLookups() {
+        return this.lookups;
+    }
+
+    @Nonnull
+    public Optional<Property> getProperty(@Nonnull final String columnName) {
+        Assert.notNull(columnName, "A column name must be given!");
+        return Optional.ofNullable(this.propertiesByColumn.get(columnName.toLowerCase()));
+    }
+
+    @Nonnull
+    public T newInstance() {
+        try {
+            return this.type.newInstance();
+        } catch (final InstantiationException | IllegalAccessException ex) {
+            throw new IllegalArgumentException("Could not create instance of type [" + this.type.getSimpleName() + "]!", ex);
+        }
+    }
+
+    public static final class Property {
+
+        private final Field field;
+        private final String columnName;
+        private final int partitionKeyPosition;
+        private final int clusteringColumnPosition;
+        private final String lookupTable;
+
+        private Property(final Field field) {
+            super();
+            field.setAccessible(true);
+            this.field = field;
+            final Column column = field.getAnnotation(Column.class);
+            this.columnName = column != null && !column.name().isEmpty() ? column.name() : field.getName();
+            final PartitionKey partitionKey = field.getAnnotation(PartitionKey.class);
+            this.partitionKeyPosition = partitionKey != null ? partitionKey.value() : -1;
+            final ClusteringColumn clusteringColumn = field.getAnnotation(ClusteringColumn.class);
+            this.clusteringColumnPosition = clusteringColumn != null ? clusteringColumn.value() : -1;
+            final Lookup lookup = field.getAnnotation(Lookup.class);
+            this.lookupTable = lookup != null ? lookup.table() : null;
+        }
+
+        @Nonnull
+        public String getName() {
+            return this.field.getName();
+        }
+
+        @Nonnull
+        public String getColumnName() {
+            return this.columnName;
+        }
+
+        @Nonnull
+        public Class<?> getJavaType() {
+            return this.field.getType();
+        }
+
+        @Nonnull
+        public Type getGenericType() {
+            return this.field.getGenericType();
+        }
+
+        public boolean isPartitionKey() {
+            return this.partitionKeyPosition >= 0;
+        }
+
+        public boolean isClusteringColumn() {
+            return this.clusteringColumnPosition >= 0;
+        }
+
+        @Nonnull
+        public Optional<String> getLookupTable() {
+            return Optional.ofNullable(this.lookupTable);
+        }
+
+        public Object getValue(@Nonnull final Object entity) {
+            try {
+                return this.field.get(entity);
+            } catch (final IllegalAccessException iaex) {
+                throw new IllegalStateException("Could not read property [" + this.getName() + "]!", iaex);
+            }
+        }
+
+        public void setValue(@Nonnull final Object entity, final Object value) {
+            try {
+                this.field.set(entity, value);
+            } catch (final IllegalAccessException iaex) {
+                throw new IllegalStateException("Could not write property [" + this.getName() + "]!", iaex);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public final class FileUsageSink implements UsageSink {
+
+    private final Path file;
+
+    public FileUsageSink(@Nonnull final Path file) {
+        super();
+        Assert.notNull(file, "A file must be given!");
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void export(@Nonnull final List<UsageSnapshot> usageSnapshots) {
+        Assert.notNull(usageSnapshots, "Usage snapshots must be given!");
+        // snapshots are cumulative, consumers bill the difference between two exports of the same tenant and table
+        try (final BufferedWriter writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (final UsageSnapshot usageSnapshot : usageSnapshots) {
+                writer.write(usageSnapshot.getCapturedAt() + "," + usageSnapshot.getIdentifier() + ","
+                        + usageSnapshot.getTable() + "," + usageSnapshot.getReads() + "," + usageSnapshot.getWrites() + ","
+                        + usageSnapshot.getRowsReturned() + "," + usageSnapshot.getBytesSent() + ","
+                        + usageSnapshot.getBytesReceived());
+                writer.newLine();
+            }
+        } catch (final IOException ioex) {
+            throw new IllegalStateException("Could not write usage to [" + this.file + "]!", ioex);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.QueryValidationException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+final class HealthTracker implements LatencyTracker {
+
+    private final CircuitBreaker clusterCircuitBreaker;
+    private final Function<String, CircuitBreaker> keyspaceCircuitBreakerFactory;
+    private final ConcurrentHashMap<String, CircuitBreaker> keyspaceCircuitBreakers;
+
+    HealthTracker(final CircuitBreaker clusterCircuitBreaker, final Function<String, CircuitBreaker> keyspaceCircuitBreakerFactory) {
+        super();
+        this.clusterCircuitBreaker = clusterCircuitBreaker;
+        this.keyspaceCircuitBreakerFactory = keyspaceCircuitBreakerFactory;
+        this.keyspaceCircuitBreakers = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void update(final Host host, final Statement statement, final Exception exception, final long newLatencyNanos) {
+        final String keyspace = statement.getKeyspace();
+        final CircuitBreaker keyspaceCircuitBreaker = keyspace != null
+                ? this.keyspaceCircuitBreakers.computeIfAbsent(keyspace, this.keyspaceCircuitBreakerFactory)
+                : null;
+
+        // client errors, e.g. invalid queries, say nothing about the health of the cluster
+        if (exception == null || exception instanceof QueryValidationException || !(exception instanceof DriverException)) {
+            this.clusterCircuitBreaker.recordSuccess();
+            if (keyspaceCircuitBreaker != null) {
+                keyspaceCircuitBreaker.recordSuccess();
+            }
+        } else {
+            final boolean timeout = exception instanceof OperationTimedOutException
+                    || exception instanceof ReadTimeoutException
+                    || exception instanceof WriteTimeoutException;
+            this.clusterCircuitBreaker.recordFailure(timeout);
+            if (keyspaceCircuitBreaker != null) {
+                keyspaceCircuitBreaker.recordFailure(timeout);
+            }
+        }
+    }
+
+    @Override
+    public void onRegister(final Cluster cluster) {
+        // nothing to do
+    }
+
+    @Override
+    public void onUnregister(final Cluster cluster) {
+        // nothing to do
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.querybuilder.Delete;
+import com.datastax.driver.core.querybuilder.Insert;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import com.google.common.reflect.TypeToken;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+final class LookupTable {
+
+    private static final ConcurrentHashMap<Class<?>, List<LookupTable>> CACHED_LOOKUP_TABLES = new ConcurrentHashMap<>();
+
+    private final EntityMetadata.Property property;
+    private final String tableName;
+    private final List<EntityMetadata.Property> primaryKey;
+    private final List<TypeToken<?>> primaryKeyTypes;
+    private final RegularStatement insertQuery;
+    private final RegularStatement deleteQuery;
+    private final RegularStatement selectQuery;
+
+    private LookupTable(final EntityMetadata<?> entityMetadata, final EntityMetadata.Property property) {
+        super();
+        this.property = property;
+        this.tableName = property.getLookupTable().get();
+        this.primaryKey = entityMetadata.getPrimaryKey();
+        this.primaryKeyTypes = this.primaryKey.stream()
+                .map(primaryKeyProperty -> TypeToken.of(primaryKeyProperty.getGenericType()).wrap())
+                .collect(Collectors.toList());
+
+        final Optional<String> keyspace = entityMetadata.getKeyspace();
+        final Insert insert = keyspace.isPresent()
+                ? QueryBuilder.insertInto(keyspace.get(), this.tableName)
+                : QueryBuilder.insertInto(this.tableName);
+        insert.value(property.getColumnName(), QueryBuilder.bindMarker());
+        final Delete delete = keyspace.isPresent()
+                ? QueryBuilder.delete().from(keyspace.get(), this.tableName)
+                : QueryBuilder.delete().from(this.tableName);
+        final Delete.Where deleteWhere = delete.where(QueryBuilder.eq(property.getColumnName(), QueryBuilder.bindMarker()));
+        final String[] primaryKeyColumns = new String[this.primaryKey.size()];
+        for (int index = 0; index < primaryKeyColumns.length; index++) {
+            primaryKeyColumns[index] = this.primaryKey.get(index).getColumnName();
+            insert.value(primaryKeyColumns[index], QueryBuilder.bindMarker());
+            deleteWhere.and(QueryBuilder.eq(primaryKeyColumns[index], QueryBuilder.bindMarker()));
+        }
+        final Select select = keyspace.isPresent()
+                ? QueryBuilder.select(primaryKeyColumns).from(keyspace.get(), this.tableName)
+                : QueryBuilder.select(primaryKeyColumns).from(this.tableName);
+        select.where(QueryBuilder.eq(property.getColumnName(), QueryBuilder.bindMarker()));
+
+        // built once, the query strings double as keys of the prepared statement cache
+        this.insertQuery = new SimpleStatement(insert.getQueryString());
+        this.deleteQuery = new SimpleStatement(delete.getQueryString());
+        this.selectQuery = new SimpleStatement(select.getQueryString());
+    }
+
+    static List<LookupTable> of(final Class<?> type) {
+        return LookupTable.CACHED_LOOKUP_TABLES.computeIfAbsent(type, (key) -> {
+            final EntityMetadata<?> entityMetadata = EntityMetadata.of(type);
+            final ArrayList<LookupTable> lookupTables = new ArrayList<>();
+            entityMetadata.getLookups().forEach(property -> lookupTables.add(new LookupTable(entityMetadata, property)));
+            return Collections.unmodifiableList(lookupTables);
+        });
+    }
+
+    static Optional<LookupTable> of(final Class<?> type, final String columnName) {
+        return LookupTable.of(type).stream()
+                .filter(lookupTable -> lookupTable.property.getColumnName().equalsIgnoreCase(columnName))
+                .findFirst();
+    }
+
+    String getColumnName() {
+        return this.property.getColumnName();
+    }
+
+    String getTableName() {
+        return this.tableName;
+    }
+
+    RegularStatement getInsertQuery() {
+        return this.insertQuery;
+    }
+
+    RegularStatement getDeleteQuery() {
+        return this.deleteQuery;
+    }
+
+    RegularStatement getSelectQuery() {
+        return this.selectQuery;
+    }
+
+    Object getValue(final Object entity) {
+        return this.property.getValue(entity);
+    }
+
+    Object[] toValues(final Object value, final Object[] primaryKey) {
+        final Object[] values = new Object[primaryKey.length + 1];
+        values[0] = value;
+        System.arraycopy(primaryKey, 0, values, 1, primaryKey.length);
+        return values;
+    }
+
+    Object[] toPrimaryKey(final Object entity) {
+        final Object[] primaryKey = new Object[this.primaryKey.size()];
+        for (int index = 0; index < primaryKey.length; index++) {
+            primaryKey[index] = this.primaryKey.get(index).getValue(entity);
+        }
+        return primaryKey;
+    }
+
+    Object[] toPrimaryKey(final Row row) {
+        final Object[] primaryKey = new Object[this.primaryKey.size()];
+        for (int index = 0; index < primaryKey.length; index++) {
+            primaryKey[index] = row.get(index, this.primaryKeyTypes.get(index));
+        }
+        return primaryKey;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+final class Memoizer<K, V> {
+
+    private final Function<K, V> getter;
+    private final BiConsumer<K, V> setter;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> pending;
+
+    Memoizer(final ConcurrentHashMap<K, V> values) {
+        this(values::get, values::put);
+    }
+
+    Memoizer(final Function<K, V> getter, final BiConsumer<K, V> setter) {
+        super();
+        this.getter = getter;
+        this.setter = setter;
+        this.pending = new ConcurrentHashMap<>();
+    }
+
+    // unlike ConcurrentHashMap.computeIfAbsent the factory runs outside of any monitor, so blocking
+    // I/O does not hold a bin lock, and waiting callers park instead of pinning their carrier thread
+    V computeIfAbsent(final K key, final Function<? super K, ? extends V> factory) {
+        final V value = this.getter.apply(key);
+        if (value != null) {
+            return value;
+        }
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> runningFuture = this.pending.putIfAbsent(key, future);
+        if (runningFuture != null) {
+            return Memoizer.await(runningFuture);
+        }
+
+        try {
+            V currentValue = this.getter.apply(key);
+            if (currentValue == null) {
+                currentValue = factory.apply(key);
+                if (currentValue != null) {
+                    this.setter.accept(key, currentValue);
+                }
+            }
+            future.complete(currentValue);
+            return currentValue;
+        } catch (final RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            this.pending.remove(key, future);
+        }
+    }
+
+    private static <V> V await(final CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException cex) {
+            if (cex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) cex.getCause();
+            }
+            throw cex;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+final class MeteredResultSet implements ResultSet {
+
+    private final ResultSet resultSet;
+    private final UsageAccountant.TableUsage tableUsage;
+
+    MeteredResultSet(final ResultSet resultSet, final UsageAccountant.TableUsage tableUsage) {
+        super();
+        this.resultSet = resultSet;
+        this.tableUsage = tableUsage;
+    }
+
+    @Override
+    public ColumnDefinitions getColumnDefinitions() {
+        return this.resultSet.getColumnDefinitions();
+    }
+
+    @Override
+    public boolean wasApplied() {
+        return this.resultSet.wasApplied();
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return this.resultSet.isExhausted();
+    }
+
+    @Override
+    public boolean isFullyFetched() {
+        return this.resultSet.isFullyFetched();
+    }
+
+    @Override
+    public int getAvailableWithoutFetching() {
+        return this.resultSet.getAvailableWithoutFetching();
+    }
+
+    @Override
+    public ListenableFuture<ResultSet> fetchMoreResults() {
+        return Futures.transform(this.resultSet.fetchMoreResults(),
+                (com.google.common.base.Function<ResultSet, ResultSet>) fetched -> this);
+    }
+
+    @Override
+    public Row one() {
+        return this.meter(this.resultSet.one());
+    }
+
+    @Override
+    public List<Row> all() {
+        final List<Row> rows = this.resultSet.all();
+        rows.forEach(this::meter);
+        return rows;
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        final Iterator<Row> iterator = this.resultSet.iterator();
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                return MeteredResultSet.this.meter(iterator.next());
+            }
+        };
+    }
+
+    @Override
+    public ExecutionInfo getExecutionInfo() {
+        return this.resultSet.getExecutionInfo();
+    }
+
+    @Override
+    public List<ExecutionInfo> getAllExecutionInfo() {
+        return this.resultSet.getAllExecutionInfo();
+    }
+
+    private Row meter(final Row row) {
+        if (row != null) {
+            // the serialized column values approximate the payload, protocol framing is not accounted
+            long size = 0L;
+            for (int index = 0; index < row.getColumnDefinitions().size(); index++) {
+                final ByteBuffer value = row.getBytesUnsafe(index);
+                size += value != null ? value.remaining() : 0;
+            }
+            this.tableUsage.recordRow(size);
+        }
+        return row;
+    }
+}
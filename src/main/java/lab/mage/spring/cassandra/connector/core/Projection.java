@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import com.google.common.base.Defaults;
+import com.google.common.reflect.TypeToken;
+import org.springframework.util.Assert;
+
+import java.beans.Introspector;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class Projection<T> {
+
+    private static final ConcurrentHashMap<ProjectionKey, Projection<?>> CACHED_PROJECTIONS = new ConcurrentHashMap<>();
+
+    private final EntityMetadata<T> entityMetadata;
+    private final List<EntityMetadata.Property> properties;
+    private final List<TypeToken<?>> javaTypes;
+    private final HashMap<Method, Integer> positionsByMethod;
+    private final Class<?> projectionType;
+    private final RegularStatement query;
+
+    private Projection(final EntityMetadata<T> entityMetadata, final List<EntityMetadata.Property> properties,
+                       final HashMap<Method, Integer> positionsByMethod, final Class<?> projectionType) {
+        super();
+        this.entityMetadata = entityMetadata;
+        this.properties = Collections.unmodifiableList(properties);
+        final ArrayList<TypeToken<?>> javaTypes = new ArrayList<>(properties.size());
+        properties.forEach(property -> javaTypes.add(TypeToken.of(property.getGenericType()).wrap()));
+        this.javaTypes = javaTypes;
+        this.positionsByMethod = positionsByMethod;
+        this.projectionType = projectionType;
+        this.query = this.buildQuery();
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Projection<T> ofColumns(final Class<T> type, final Collection<String> columns) {
+        final TreeSet<String> columnNames = new TreeSet<>();
+        columns.forEach(column -> columnNames.add(column.toLowerCase()));
+        return (Projection<T>) Projection.CACHED_PROJECTIONS.computeIfAbsent(new ProjectionKey(type, columnNames), (key) -> {
+            final EntityMetadata<T> entityMetadata = EntityMetadata.of(type);
+            // the primary key is always read, so partial entities can be told apart and written back
+            final LinkedHashMap<String, EntityMetadata.Property> properties = new LinkedHashMap<>();
+            entityMetadata.getPrimaryKey().forEach(property -> properties.put(property.getColumnName().toLowerCase(), property));
+            for (final String columnName : columnNames) {
+                properties.put(columnName, entityMetadata.getProperty(columnName).orElseThrow(
+                        () -> new IllegalArgumentException("Unknown column [" + columnName + "] of type [" + type.getSimpleName() + "]!")));
+            }
+            return new Projection<>(entityMetadata, new ArrayList<>(properties.values()), new HashMap<>(), null);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Projection<T> ofInterface(final Class<T> type, final Class<?> projectionType) {
+        Assert.isTrue(projectionType.isInterface(), "Projection [" + projectionType.getSimpleName() + "] must be an interface!");
+        return (Projection<T>) Projection.CACHED_PROJECTIONS.computeIfAbsent(new ProjectionKey(type, projectionType), (key) -> {
+            final EntityMetadata<T> entityMetadata = EntityMetadata.of(type);
+            final ArrayList<EntityMetadata.Property> properties = new ArrayList<>();
+            final HashMap<Method, Integer> positionsByMethod = new HashMap<>();
+            for (final Method method : projectionType.getMethods()) {
+                if (method.isDefault() || method.getParameterCount() > 0) {
+                    continue;
+                }
+                final String propertyName = Projection.toPropertyName(method);
+                final EntityMetadata.Property property = entityMetadata.getProperties().stream()
+                        .filter(candidate -> candidate.getName().equals(propertyName))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException("Method [" + method.getName() + "] of projection ["
+                                + projectionType.getSimpleName() + "] does not match a property of type [" + type.getSimpleName() + "]!"));
+                Assert.isTrue(method.getReturnType().isAssignableFrom(property.getJavaType()),
+                        "Method [" + method.getName() + "] of projection [" + projectionType.getSimpleName()
+                                + "] must return [" + property.getJavaType().getSimpleName() + "]!");
+                int position = properties.indexOf(property);
+                if (position < 0) {
+                    position = properties.size();
+                    properties.add(property);
+                }
+                positionsByMethod.put(method, position);
+            }
+            Assert.notEmpty(properties, "Projection [" + projectionType.getSimpleName() + "] does not declare any getter!");
+            return new Projection<>(entityMetadata, properties, positionsByMethod, projectionType);
+        });
+    }
+
+    String getTableName() {
+        return this.entityMetadata.getTableName();
+    }
+
+    RegularStatement getQuery() {
+        return this.query;
+    }
+
+    private RegularStatement buildQuery() {
+        final String[] columnNames = this.properties.stream().map(EntityMetadata.Property::getColumnName).toArray(String[]::new);
+        final Select select = this.entityMetadata.getKeyspace().isPresent()
+                ? QueryBuilder.select(columnNames).from(this.entityMetadata.getKeyspace().get(), this.entityMetadata.getTableName())
+                : QueryBuilder.select(columnNames).from(this.entityMetadata.getTableName());
+        final Select.Where where = select.where();
+        this.entityMetadata.getPrimaryKey().forEach(property ->
+                where.and(QueryBuilder.eq(property.getColumnName(), QueryBuilder.bindMarker())));
+        // built once, the query string doubles as the key of the prepared statement cache
+        return new SimpleStatement(select.getQueryString());
+    }
+
+    T toEntity(final Row row) {
+        final T entity = this.entityMetadata.newInstance();
+        for (int index = 0; index < this.properties.size(); index++) {
+            final Object value = row.get(index, this.javaTypes.get(index));
+            if (value != null || !this.properties.get(index).getJavaType().isPrimitive()) {
+                this.properties.get(index).setValue(entity, value);
+            }
+        }
+        return entity;
+    }
+
+    @SuppressWarnings("unchecked")
+    <P> P toProjection(final Row row) {
+        final Object[] values = new Object[this.properties.size()];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = row.get(index, this.javaTypes.get(index));
+        }
+        return (P) Proxy.newProxyInstance(this.projectionType.getClassLoader(), new Class<?>[]{this.projectionType},
+                (proxy, method, args) -> {
+                    final Integer position = this.positionsByMethod.get(method);
+                    if (position != null) {
+                        final Object value = values[position];
+                        return value == null && method.getReturnType().isPrimitive()
+                                ? Defaults.defaultValue(method.getReturnType())
+                                : value;
+                    }
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return this.projectionType.getSimpleName() + this.toString(values);
+                        default:
+                            throw new UnsupportedOperationException("Method [" + method.getName() + "] is not supported by projections!");
+                    }
+                });
+    }
+
+    private String toString(final Object[] values) {
+        final StringBuilder builder = new StringBuilder("{");
+        for (int index = 0; index < values.length; index++) {
+            builder.append(index > 0 ? ", " : "").append(this.properties.get(index).getName()).append('=').append(values[index]);
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String toPropertyName(final Method method) {
+        final String name = method.getName();
+        if (name.startsWith("get") && name.length() > 3) {
+            return Introspector.decapitalize(name.substring(3));
+        } else if (name.startsWith("is") && name.length() > 2
+                && (method.getReturnType() == Boolean.TYPE || method.getReturnType() == Boolean.class)) {
+            return Introspector.decapitalize(name.substring(2));
+        } else {
+            return name;
+        }
+    }
+
+    private static final class ProjectionKey {
+
+        private final Class<?> type;
+        private final Object projection;
+
+        private ProjectionKey(final Class<?> type, final Object projection) {
+            super();
+            this.type = type;
+            this.projection = projection;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ProjectionKey that = (ProjectionKey) o;
+            return type == that.type &&
+                    Objects.equals(projection, that.projection);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, projection);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import lab.mage.spring.cassandra.connector.domain.TenantInfo;
+
+import javax.annotation.Nonnull;
+import java.util.Optional;
+
+public final class ProvisioningResult {
+
+    private final TenantInfo tenantInfo;
+    private final Throwable error;
+
+    ProvisioningResult(final TenantInfo tenantInfo, final Throwable error) {
+        super();
+        this.tenantInfo = tenantInfo;
+        this.error = error;
+    }
+
+    @Nonnull
+    public String getIdentifier() {
+        return this.tenantInfo.getIdentifier();
+    }
+
+    @Nonnull
+    public TenantInfo getTenantInfo() {
+        return this.tenantInfo;
+    }
+
+    @Nonnull
+    public Optional<Throwable> getError() {
+        return Optional.ofNullable(this.error);
+    }
+
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "ProvisioningResult{" +
+                "identifier='" + tenantInfo.getIdentifier() + '\'' +
+                ", keyspace='" + tenantInfo.getKeyspace() + '\'' +
+                ", error=" + error +
+                '}';
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.QueryTrace;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.StatementInspector;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public final class QueryDiagnostics {
+
+    private final Logger logger;
+    private final BiFunction<Cluster, String, Optional<String>> tenantResolver;
+    private final long defaultThreshold;
+    private final ConcurrentHashMap<String, Long> tenantThresholds;
+    private final ConcurrentHashMap<String, Long> tableThresholds;
+    private final double traceSampleRate;
+    private final ThreadPoolExecutor traceExecutor;
+    private volatile long minimumThreshold;
+
+    QueryDiagnostics(final Environment env, final Logger logger,
+                     final BiFunction<Cluster, String, Optional<String>> tenantResolver) {
+        super();
+        this.logger = logger;
+        this.tenantResolver = tenantResolver;
+        this.defaultThreshold = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(env.getProperty(
+                CassandraConnectorConstants.SLOW_QUERY_THRESHOLD_PROP, CassandraConnectorConstants.SLOW_QUERY_THRESHOLD_PROP_DEFAULT)));
+        this.tenantThresholds = new ConcurrentHashMap<>();
+        this.tableThresholds = new ConcurrentHashMap<>();
+        this.traceSampleRate = Double.valueOf(env.getProperty(
+                CassandraConnectorConstants.TRACING_SAMPLE_RATE_PROP, CassandraConnectorConstants.TRACING_SAMPLE_RATE_PROP_DEFAULT));
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mage-trace-");
+        threadFactory.setDaemon(true);
+        // traces are best effort, drop them instead of queuing up if Cassandra is slow to deliver them
+        this.traceExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(1000), threadFactory, new ThreadPoolExecutor.DiscardPolicy());
+
+        this.parseThresholds(env.getProperty(CassandraConnectorConstants.SLOW_QUERY_TENANT_THRESHOLDS_PROP), this.tenantThresholds,
+                Function.identity());
+        // table names are matched case insensitive, the same way setTableThreshold stores them
+        this.parseThresholds(env.getProperty(CassandraConnectorConstants.SLOW_QUERY_TABLE_THRESHOLDS_PROP), this.tableThresholds,
+                String::toLowerCase);
+        this.updateMinimumThreshold();
+    }
+
+    public void setTenantThreshold(@Nonnull final String identifier, final long threshold, @Nonnull final TimeUnit unit) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(unit, "A time unit must be given!");
+        this.tenantThresholds.put(identifier, unit.toNanos(threshold));
+        this.updateMinimumThreshold();
+    }
+
+    public void setTableThreshold(@Nonnull final String table, final long threshold, @Nonnull final TimeUnit unit) {
+        Assert.notNull(table, "A table must be given!");
+        Assert.hasText(table, "A table must be given!");
+        Assert.notNull(unit, "A time unit must be given!");
+        this.tableThresholds.put(table.toLowerCase(), unit.toNanos(threshold));
+        this.updateMinimumThreshold();
+    }
+
+    public void removeTableThreshold(@Nonnull final String table) {
+        Assert.notNull(table, "A table must be given!");
+        Assert.hasText(table, "A table must be given!");
+        this.tableThresholds.remove(table.toLowerCase());
+        this.updateMinimumThreshold();
+    }
+
+    public boolean shouldTrace() {
+        return this.traceSampleRate > 0.0D && ThreadLocalRandom.current().nextDouble() < this.traceSampleRate;
+    }
+
+    public void trace(@Nonnull final String identifier, @Nonnull final ResultSet resultSet) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.notNull(resultSet, "A result set must be given!");
+        final QueryTrace queryTrace = resultSet.getExecutionInfo().getQueryTrace();
+        if (queryTrace == null) {
+            return;
+        }
+
+        // the trace is fetched lazily from system_traces, which blocks, so it never runs on the caller's thread
+        this.traceExecutor.execute(() -> {
+            try {
+                this.logger.info(this.summarize(identifier, queryTrace));
+            } catch (final RuntimeException rex) {
+                this.logger.debug("Could not fetch trace [" + queryTrace.getTraceId() + "].", rex);
+            }
+        });
+    }
+
+    LatencyTracker newLatencyTracker(final Cluster cluster) {
+        return new SlowQueryTracker(cluster);
+    }
+
+    void shutdown() {
+        this.traceExecutor.shutdownNow();
+    }
+
+    private String summarize(final String identifier, final QueryTrace queryTrace) {
+        final List<QueryTrace.Event> events = queryTrace.getEvents();
+        final HashMap<InetAddress, Long> lastElapsed = new HashMap<>();
+        QueryTrace.Event longestEvent = null;
+        long longestStep = -1L;
+        for (final QueryTrace.Event event : events) {
+            final long step = event.getSourceElapsedMicros() - lastElapsed.getOrDefault(event.getSource(), 0L);
+            lastElapsed.put(event.getSource(), (long) event.getSourceElapsedMicros());
+            if (step > longestStep) {
+                longestStep = step;
+                longestEvent = event;
+            }
+        }
+
+        return "Trace [" + queryTrace.getTraceId() + "] of tenant [" + identifier + "]: ["
+                + queryTrace.getRequestType() + "] on coordinator [" + queryTrace.getCoordinator() + "] took ["
+                + queryTrace.getDurationMicros() + "] micros with [" + events.size() + "] events on ["
+                + lastElapsed.size() + "] hosts"
+                + (longestEvent != null
+                ? ", longest step [" + longestEvent.getDescription() + "] on [" + longestEvent.getSource()
+                + "] took [" + longestStep + "] micros."
+                : ".");
+    }
+
+    private void parseThresholds(final String thresholds, final ConcurrentHashMap<String, Long> target,
+                                 final Function<String, String> keyNormalizer) {
+        if (thresholds == null || thresholds.trim().isEmpty()) {
+            return;
+        }
+        for (final String threshold : thresholds.split(",")) {
+            final String[] entry = threshold.split(":");
+            Assert.isTrue(entry.length == 2, "Threshold [" + threshold + "] must be given as name:millis!");
+            target.put(keyNormalizer.apply(entry[0].trim()), TimeUnit.MILLISECONDS.toNanos(Long.valueOf(entry[1].trim())));
+        }
+    }
+
+    private void updateMinimumThreshold() {
+        long minimum = this.defaultThreshold;
+        for (final Long threshold : this.tenantThresholds.values()) {
+            minimum = Math.min(minimum, threshold);
+        }
+        for (final Long threshold : this.tableThresholds.values()) {
+            minimum = Math.min(minimum, threshold);
+        }
+        this.minimumThreshold = minimum;
+    }
+
+    private final class SlowQueryTracker implements LatencyTracker {
+
+        private final Cluster cluster;
+
+        private SlowQueryTracker(final Cluster cluster) {
+            super();
+            this.cluster = cluster;
+        }
+
+        @Override
+        public void update(final Host host, final Statement statement, final Exception exception, final long newLatencyNanos) {
+            // fast path, nearly every request is below the smallest configured threshold
+            if (newLatencyNanos < QueryDiagnostics.this.minimumThreshold) {
+                return;
+            }
+
+            final String keyspace = statement.getKeyspace();
+            final Optional<String> identifier = keyspace != null
+                    ? QueryDiagnostics.this.tenantResolver.apply(this.cluster, keyspace)
+                    : Optional.empty();
+            final Optional<String> table = StatementInspector.getTable(statement);
+
+            Long threshold = table.map(QueryDiagnostics.this.tableThresholds::get).orElse(null);
+            if (threshold == null) {
+                threshold = identifier.map(QueryDiagnostics.this.tenantThresholds::get).orElse(null);
+            }
+            if (threshold == null) {
+                threshold = QueryDiagnostics.this.defaultThreshold;
+            }
+            if (newLatencyNanos < threshold) {
+                return;
+            }
+
+            QueryDiagnostics.this.logger.warn("Slow query for tenant [" + identifier.orElse(null)
+                    + "] on keyspace [" + keyspace + "] took [" + TimeUnit.NANOSECONDS.toMillis(newLatencyNanos)
+                    + "] ms on coordinator [" + host.getSocketAddress() + "]"
+                    + (exception != null ? " and failed with [" + exception.getMessage() + "]" : "")
+                    + ": [" + StatementInspector.getQueryString(statement) + "], value sizes "
+                    + StatementInspector.getValueSizes(statement,
+                    this.cluster.getConfiguration().getProtocolOptions().getProtocolVersion(),
+                    this.cluster.getConfiguration().getCodecRegistry()) + ".");
+        }
+
+        @Override
+        public void onRegister(final Cluster cluster) {
+            // nothing to do
+        }
+
+        @Override
+        public void onUnregister(final Cluster cluster) {
+            // nothing to do
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ScanCheckpoint {
+
+    private final Set<String> completedRanges;
+
+    public ScanCheckpoint() {
+        super();
+        this.completedRanges = ConcurrentHashMap.newKeySet();
+    }
+
+    public ScanCheckpoint(@Nonnull final Collection<String> completedRanges) {
+        this();
+        Assert.notNull(completedRanges, "Completed ranges must be given!");
+        this.completedRanges.addAll(completedRanges);
+    }
+
+    public boolean isCompleted(@Nonnull final String range) {
+        return this.completedRanges.contains(range);
+    }
+
+    void markCompleted(@Nonnull final String range) {
+        this.completedRanges.add(range);
+    }
+
+    @Nonnull
+    public Set<String> getCompletedRanges() {
+        return Collections.unmodifiableSet(new HashSet<>(this.completedRanges));
+    }
+}
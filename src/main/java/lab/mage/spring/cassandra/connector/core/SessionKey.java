@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.Cluster;
+
+final class SessionKey {
+
+    private final Cluster cluster;
+    private final String keyspace;
+
+    SessionKey(final Cluster cluster, final String keyspace) {
+        super();
+        this.cluster = cluster;
+        this.keyspace = keyspace;
+    }
+
+    Cluster getCluster() {
+        return this.cluster;
+    }
+
+    String getKeyspace() {
+        return this.keyspace;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SessionKey that = (SessionKey) o;
+
+        return cluster == that.cluster && keyspace.equals(that.keyspace);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(cluster) + keyspace.hashCode();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.NettyOptions;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+final class SharedNettyOptions extends NettyOptions {
+
+    private final EventLoopGroup eventLoopGroup;
+    private final Timer timer;
+
+    SharedNettyOptions(final int eventLoopThreads) {
+        super();
+        final CustomizableThreadFactory eventLoopThreadFactory = new CustomizableThreadFactory("mage-cassandra-io-");
+        eventLoopThreadFactory.setDaemon(true);
+        this.eventLoopGroup = SharedNettyOptions.newEventLoopGroup(eventLoopThreads, eventLoopThreadFactory);
+        final CustomizableThreadFactory timerThreadFactory = new CustomizableThreadFactory("mage-cassandra-timer-");
+        timerThreadFactory.setDaemon(true);
+        this.timer = new HashedWheelTimer(timerThreadFactory);
+    }
+
+    private static EventLoopGroup newEventLoopGroup(final int eventLoopThreads, final ThreadFactory threadFactory) {
+        // channels only register on a group of their own transport, so follow the driver's choice of epoll or NIO
+        final Class<? extends SocketChannel> channelClass = NettyOptions.DEFAULT_INSTANCE.channelClass();
+        if (NioSocketChannel.class.equals(channelClass)) {
+            return new NioEventLoopGroup(eventLoopThreads, threadFactory);
+        }
+        try {
+            return (EventLoopGroup) Class.forName(channelClass.getPackage().getName() + ".EpollEventLoopGroup")
+                    .getConstructor(int.class, ThreadFactory.class)
+                    .newInstance(eventLoopThreads, threadFactory);
+        } catch (final ReflectiveOperationException roex) {
+            // unknown transport, let the driver create its default group with the default number of threads
+            return NettyOptions.DEFAULT_INSTANCE.eventLoopGroup(threadFactory);
+        }
+    }
+
+    @Override
+    public EventLoopGroup eventLoopGroup(final ThreadFactory threadFactory) {
+        return this.eventLoopGroup;
+    }
+
+    @Override
+    public void onClusterClose(final EventLoopGroup eventLoopGroup) {
+        // shared across all clusters, released on shutdown
+    }
+
+    @Override
+    public Timer timer(final ThreadFactory threadFactory) {
+        return this.timer;
+    }
+
+    @Override
+    public void onClusterClose(final Timer timer) {
+        // shared across all clusters, released on shutdown
+    }
+
+    void shutdown(final long timeout, final TimeUnit unit) {
+        this.timer.stop();
+        this.eventLoopGroup.shutdownGracefully(0L, 5L, TimeUnit.SECONDS).awaitUninterruptibly(timeout, unit);
+    }
+}
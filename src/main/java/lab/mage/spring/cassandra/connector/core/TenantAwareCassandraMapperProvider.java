@@ -15,48 +15,42 @@
  */
 package lab.mage.spring.cassandra.connector.core;
 
-import com.datastax.driver.core.Session;
 import com.datastax.driver.mapping.Mapper;
-import com.datastax.driver.mapping.MappingManager;
-import lab.mage.spring.cassandra.connector.util.TenantContextHolder;
 import org.slf4j.Logger;
 import org.springframework.core.env.Environment;
 import org.springframework.util.Assert;
 
 import javax.annotation.Nonnull;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.StampedLock;
 
 public final class TenantAwareCassandraMapperProvider {
 
-    private final Environment env;
-    private final Logger logger;
     private final CassandraSessionProvider cassandraSessionProvider;
-    private final ConcurrentHashMap<String, MappingManager> managerCache;
-
-    private final StampedLock lock = new StampedLock();
 
+    // mappers are configured by the tenant handles now, environment and logger are no longer needed
     public TenantAwareCassandraMapperProvider(@Nonnull final Environment env, @Nonnull final Logger logger,
                                               @Nonnull final CassandraSessionProvider cassandraSessionProvider) {
+        this(cassandraSessionProvider);
+    }
+
+    public TenantAwareCassandraMapperProvider(@Nonnull final CassandraSessionProvider cassandraSessionProvider) {
         super();
-        Assert.notNull(env, "An environment must be given!");
-        Assert.notNull(logger, "A logger must be given!");
         Assert.notNull(cassandraSessionProvider, "A Cassandra session provider must be given!");
-        this.env = env;
-        this.logger = logger;
         this.cassandraSessionProvider = cassandraSessionProvider;
-        this.managerCache = new ConcurrentHashMap<>();
+    }
+
+    @Nonnull
+    public TenantHandle getTenantHandle() {
+        final TenantHandle tenantHandle = this.cassandraSessionProvider.getTenantHandle();
+        tenantHandle.checkAvailable();
+        return tenantHandle;
     }
 
     @Nonnull
     public <T> Mapper<T> getMapper(@Nonnull final Class<T> type) {
         Assert.notNull(type, "A type must be given!");
-        if (TenantContextHolder.getIdentifier().isPresent()) {
-            final String identifier = TenantContextHolder.getIdentifier().get();
-            return this.getMapper(identifier, type);
-        } else {
-            throw new IllegalArgumentException("Could not find tenant identifier, make sure you set an identifier using TenantContextHolder.");
-        }
+        final TenantHandle tenantHandle = this.cassandraSessionProvider.getTenantHandle();
+        tenantHandle.checkAvailable();
+        return tenantHandle.getMapper(type);
     }
 
     @Nonnull
@@ -65,20 +59,31 @@ public final class TenantAwareCassandraMapperProvider {
         Assert.hasText(identifier, "A tenant identifier must be given!");
         Assert.notNull(type, "A type must be given!");
 
-        this.managerCache.computeIfAbsent(identifier, (key) -> {
-            this.logger.info("Create new mapping mapper for tenant [" + identifier + "] and type [" + type.getSimpleName() + "].");
-            final Session session = this.cassandraSessionProvider.getTenantSession(identifier);
+        final TenantHandle tenantHandle = this.cassandraSessionProvider.getTenantHandle(identifier);
+        tenantHandle.checkAvailable();
+        return tenantHandle.getMapper(type);
+    }
 
-            final MappingManager mappingManager = new MappingManager(session);
+    @Nonnull
+    public <A> A getAccessor(@Nonnull final Class<A> type) {
+        Assert.notNull(type, "A type must be given!");
+        final TenantHandle tenantHandle = this.cassandraSessionProvider.getTenantHandle();
+        tenantHandle.checkAvailable();
+        return tenantHandle.getAccessor(type);
+    }
 
-            final Mapper<T> typedMapper = mappingManager.mapper(type);
-            typedMapper.setDefaultDeleteOptions(OptionProvider.deleteConsistencyLevel(this.env));
-            typedMapper.setDefaultGetOptions(OptionProvider.readConsistencyLevel(this.env));
-            typedMapper.setDefaultSaveOptions(OptionProvider.writeConsistencyLevel(this.env));
+    @Nonnull
+    public <A> A getAccessor(@Nonnull final String identifier, @Nonnull final Class<A> type) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(type, "A type must be given!");
 
-            return mappingManager;
-        });
+        final TenantHandle tenantHandle = this.cassandraSessionProvider.getTenantHandle(identifier);
+        tenantHandle.checkAvailable();
+        return tenantHandle.getAccessor(type);
+    }
 
-        return this.managerCache.get(identifier).mapper(type);
+    CassandraSessionProvider getCassandraSessionProvider() {
+        return this.cassandraSessionProvider;
     }
 }
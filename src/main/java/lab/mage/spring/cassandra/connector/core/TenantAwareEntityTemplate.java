@@ -15,33 +15,267 @@
  */
 package lab.mage.spring.cassandra.connector.core;
 
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.mapping.Mapper;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.TenantContextHolder;
+import lab.mage.spring.cassandra.connector.util.TenantReference;
+import lab.mage.spring.cassandra.connector.util.ThreadPools;
+import org.springframework.core.env.Environment;
+import org.springframework.util.Assert;
 
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public final class TenantAwareEntityTemplate {
 
     private final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider;
+    private final ConsistencyLevel readConsistencyLevel;
+    private final ConsistencyLevel writeConsistencyLevel;
+    private final ConsistencyLevel deleteConsistencyLevel;
+    private final int lookupConcurrency;
+    private final QueryDiagnostics queryDiagnostics;
+    private final UsageAccountant usageAccountant;
+    private final ExecutorService defaultExecutor;
+    private volatile Executor executor;
 
     public TenantAwareEntityTemplate(final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider) {
+        this(tenantAwareCassandraMapperProvider.getCassandraSessionProvider().getEnvironment(),
+                tenantAwareCassandraMapperProvider,
+                tenantAwareCassandraMapperProvider.getCassandraSessionProvider().getQueryDiagnostics(),
+                tenantAwareCassandraMapperProvider.getCassandraSessionProvider().getUsageAccountant());
+    }
+
+    public TenantAwareEntityTemplate(final Environment env,
+                                     final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider,
+                                     final QueryDiagnostics queryDiagnostics,
+                                     final UsageAccountant usageAccountant) {
         super();
         this.tenantAwareCassandraMapperProvider = tenantAwareCassandraMapperProvider;
+        this.readConsistencyLevel = ConsistencyLevel.valueOf(env.getProperty(
+                CassandraConnectorConstants.CONSISTENCY_LEVEL_READ_PROP, CassandraConnectorConstants.CONSISTENCY_LEVEL_PROP_DEFAULT));
+        this.writeConsistencyLevel = ConsistencyLevel.valueOf(env.getProperty(
+                CassandraConnectorConstants.CONSISTENCY_LEVEL_WRITE_PROP, CassandraConnectorConstants.CONSISTENCY_LEVEL_PROP_DEFAULT));
+        this.deleteConsistencyLevel = ConsistencyLevel.valueOf(env.getProperty(
+                CassandraConnectorConstants.CONSISTENCY_LEVEL_DELETE_PROP, CassandraConnectorConstants.CONSISTENCY_LEVEL_PROP_DEFAULT));
+        this.lookupConcurrency = Integer.valueOf(env.getProperty(
+                CassandraConnectorConstants.LOOKUP_CONCURRENCY_PROP, CassandraConnectorConstants.LOOKUP_CONCURRENCY_PROP_DEFAULT));
+        this.queryDiagnostics = queryDiagnostics;
+        this.usageAccountant = usageAccountant;
+        this.defaultExecutor = ThreadPools.newBoundedThreadPool("mage-template-",
+                Runtime.getRuntime().availableProcessors() * 4);
+        this.executor = this.defaultExecutor;
+    }
+
+    public void setExecutor(@Nonnull final Executor executor) {
+        Assert.notNull(executor, "An executor must be given!");
+        this.executor = executor;
     }
 
     @SuppressWarnings("unchecked")
     public <T> void save(final T entity) {
         final Mapper<T> mapper = this.tenantAwareCassandraMapperProvider.getMapper((Class<T>) entity.getClass());
-        mapper.save(entity);
+        final List<LookupTable> lookupTables = LookupTable.of(entity.getClass());
+        if (!lookupTables.isEmpty()) {
+            this.write(mapper.getManager().getSession(), this.newLookupBatch(mapper.saveQuery(entity), entity, lookupTables, true)
+                    .setConsistencyLevel(this.writeConsistencyLevel));
+        } else if (this.queryDiagnostics.shouldTrace()) {
+            this.executeTraced(mapper.getManager().getSession(), mapper.saveQuery(entity));
+        } else {
+            mapper.save(entity);
+        }
     }
 
     public <T> Optional<T> findById(final Class<T> type, final Object... identifier) {
         final Mapper<T> mapper = this.tenantAwareCassandraMapperProvider.getMapper(type);
-        return Optional.ofNullable(mapper.get(identifier));
+        // executed here instead of using get(), so the returned rows can be accounted
+        return Optional.ofNullable(mapper.mapAliased(this.query(mapper.getManager().getSession(),
+                mapper.getTableMetadata().getName(), mapper.getQuery(identifier))).one());
+    }
+
+    public <T> Optional<T> findPartialById(final Class<T> type, final Collection<String> columns, final Object... identifier) {
+        Assert.notNull(type, "A type must be given!");
+        Assert.notEmpty(columns, "At least one column must be given!");
+        final Projection<T> projection = Projection.ofColumns(type, columns);
+        final Row row = this.queryProjection(projection, identifier);
+        return row != null ? Optional.of(projection.toEntity(row)) : Optional.empty();
+    }
+
+    public <T, P> Optional<P> findProjectionById(final Class<T> type, final Class<P> projectionType, final Object... identifier) {
+        Assert.notNull(type, "A type must be given!");
+        Assert.notNull(projectionType, "A projection type must be given!");
+        final Projection<T> projection = Projection.ofInterface(type, projectionType);
+        final Row row = this.queryProjection(projection, identifier);
+        return row != null ? Optional.of(projection.toProjection(row)) : Optional.empty();
+    }
+
+    public <T> List<T> findByLookup(final Class<T> type, final String column, final Object value) {
+        Assert.notNull(type, "A type must be given!");
+        Assert.notNull(column, "A column must be given!");
+        Assert.notNull(value, "A value must be given!");
+        final LookupTable lookupTable = LookupTable.of(type, column).orElseThrow(() ->
+                new IllegalArgumentException("Type [" + type.getSimpleName() + "] declares no lookup for column [" + column + "]!"));
+        final TenantHandle tenantHandle = this.tenantAwareCassandraMapperProvider.getTenantHandle();
+        final Mapper<T> mapper = tenantHandle.getMapper(type);
+        final Session session = tenantHandle.getSession();
+        final String table = mapper.getTableMetadata().getName();
+
+        // the first hop resolves primary keys, the second hop reads the entities with a window of concurrent requests
+        final ResultSet lookupResultSet = this.query(session, lookupTable.getTableName(),
+                tenantHandle.prepare(lookupTable.getSelectQuery()).bind(value).setConsistencyLevel(this.readConsistencyLevel));
+        final ArrayDeque<ResultSetFuture> pending = new ArrayDeque<>();
+        final ArrayList<T> entities = new ArrayList<>();
+        for (final Row row : lookupResultSet) {
+            if (pending.size() >= this.lookupConcurrency) {
+                this.collectLookup(mapper, session, table, pending.poll(), lookupTable, value, entities);
+            }
+            pending.add(session.executeAsync(mapper.getQuery(lookupTable.toPrimaryKey(row))));
+        }
+        while (!pending.isEmpty()) {
+            this.collectLookup(mapper, session, table, pending.poll(), lookupTable, value, entities);
+        }
+        return entities;
     }
 
     @SuppressWarnings("unchecked")
     public <T> void delete(final T entity) {
         final Mapper<T> mapper = this.tenantAwareCassandraMapperProvider.getMapper((Class<T>) entity.getClass());
-        mapper.delete(entity);
+        final List<LookupTable> lookupTables = LookupTable.of(entity.getClass());
+        if (!lookupTables.isEmpty()) {
+            this.write(mapper.getManager().getSession(), this.newLookupBatch(mapper.deleteQuery(entity), entity, lookupTables, false)
+                    .setConsistencyLevel(this.deleteConsistencyLevel));
+        } else if (this.queryDiagnostics.shouldTrace()) {
+            this.executeTraced(mapper.getManager().getSession(), mapper.deleteQuery(entity));
+        } else {
+            mapper.delete(entity);
+        }
+    }
+
+    public <T> CompletableFuture<Void> saveAsync(final T entity) {
+        return this.supplyAsync(() -> {
+            this.save(entity);
+            return null;
+        });
+    }
+
+    public <T> CompletableFuture<Optional<T>> findByIdAsync(final Class<T> type, final Object... identifier) {
+        return this.supplyAsync(() -> this.findById(type, identifier));
+    }
+
+    public <T> CompletableFuture<Void> deleteAsync(final T entity) {
+        return this.supplyAsync(() -> {
+            this.delete(entity);
+            return null;
+        });
+    }
+
+    @PreDestroy
+    private void cleanUp() {
+        this.defaultExecutor.shutdown();
+    }
+
+    private <R> CompletableFuture<R> supplyAsync(final Supplier<R> supplier) {
+        if (TenantContextHolder.getReference().isPresent()) {
+            // the tenant is handed over explicitly, so executors creating threads per task need no inheritable context
+            final TenantReference tenantReference = TenantContextHolder.getReference().get();
+            return CompletableFuture.supplyAsync(() -> TenantContextHolder.callAs(tenantReference, supplier), this.executor);
+        } else {
+            throw new IllegalArgumentException("Could not find tenant identifier, make sure you set an identifier using TenantContextHolder.");
+        }
+    }
+
+    private BatchStatement newLookupBatch(final Statement statement, final Object entity,
+                                          final List<LookupTable> lookupTables, final boolean save) {
+        final TenantHandle tenantHandle = this.tenantAwareCassandraMapperProvider.getTenantHandle();
+        // the stored values tell which entries to remove, so a changed value, or a delete given the key only or a
+        // stale entity, leaves no entry behind
+        final Object[] primaryKey = lookupTables.get(0).toPrimaryKey(entity);
+        final Projection<?> projection = Projection.ofColumns(entity.getClass(),
+                lookupTables.stream().map(LookupTable::getColumnName).collect(Collectors.toList()));
+        final Row storedRow = this.queryProjection(projection, primaryKey);
+        final Object storedEntity = storedRow != null ? projection.toEntity(storedRow) : null;
+
+        // a logged batch applies the entity and its lookup entries together, so lookup tables do not drift on partial failures
+        final BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.LOGGED);
+        batchStatement.add(statement);
+        for (final LookupTable lookupTable : lookupTables) {
+            final Object value = lookupTable.getValue(entity);
+            final LinkedHashSet<Object> removedValues = new LinkedHashSet<>();
+            if (storedEntity != null && lookupTable.getValue(storedEntity) != null) {
+                removedValues.add(lookupTable.getValue(storedEntity));
+            }
+            if (save) {
+                removedValues.remove(value);
+            } else if (value != null) {
+                removedValues.add(value);
+            }
+            for (final Object removedValue : removedValues) {
+                batchStatement.add(tenantHandle.prepare(lookupTable.getDeleteQuery())
+                        .bind(lookupTable.toValues(removedValue, primaryKey)));
+            }
+            if (save && value != null) {
+                batchStatement.add(tenantHandle.prepare(lookupTable.getInsertQuery())
+                        .bind(lookupTable.toValues(value, primaryKey)));
+            }
+        }
+        return batchStatement;
+    }
+
+    private <T> void collectLookup(final Mapper<T> mapper, final Session session, final String table,
+                                   final ResultSetFuture future, final LookupTable lookupTable, final Object value,
+                                   final List<T> entities) {
+        final T entity = mapper.mapAliased(this.usageAccountant.meter(session, table, future.getUninterruptibly())).one();
+        // concurrent writes of the same entity may both have read the same stored value, so an entry can still be
+        // stale, the entity itself is authoritative
+        if (entity != null && Objects.equals(lookupTable.getValue(entity), value)) {
+            entities.add(entity);
+        }
+    }
+
+    private void write(final Session session, final Statement statement) {
+        if (this.queryDiagnostics.shouldTrace()) {
+            this.executeTraced(session, statement);
+        } else {
+            session.execute(statement);
+        }
+    }
+
+    private Row queryProjection(final Projection<?> projection, final Object... identifier) {
+        final TenantHandle tenantHandle = this.tenantAwareCassandraMapperProvider.getTenantHandle();
+        final Statement statement = tenantHandle.prepare(projection.getQuery()).bind(identifier)
+                .setConsistencyLevel(this.readConsistencyLevel);
+        return this.query(tenantHandle.getSession(), projection.getTableName(), statement).one();
+    }
+
+    private ResultSet query(final Session session, final String table, final Statement statement) {
+        final ResultSet resultSet = this.queryDiagnostics.shouldTrace()
+                ? this.executeTraced(session, statement)
+                : session.execute(statement);
+        return this.usageAccountant.meter(session, table, resultSet);
+    }
+
+    private ResultSet executeTraced(final Session session, final Statement statement) {
+        statement.enableTracing();
+        final ResultSet resultSet = session.execute(statement);
+        this.queryDiagnostics.trace(TenantContextHolder.getIdentifier().get(), resultSet);
+        return resultSet;
     }
 }
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import com.datastax.driver.mapping.Mapper;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import lab.mage.spring.cassandra.connector.annotation.TimeSeries;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.TenantContextHolder;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public final class TenantAwareTimeSeriesTemplate {
+
+    private final Environment env;
+    private final Logger logger;
+    private final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider;
+    private final UsageAccountant usageAccountant;
+    private final ConcurrentHashMap<PartitionKey, Buffer> buffers;
+    private final ConcurrentHashMap<RangeKey, PreparedStatement> rangeStatementCache;
+    private final Memoizer<RangeKey, PreparedStatement> rangeStatementMemoizer;
+    private final ConcurrentHashMap<Class<?>, Definition> definitions;
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final ScheduledExecutorService retryExecutorService;
+    private final Semaphore window;
+    private final int batchSize;
+    private final int concurrency;
+    private final int retries;
+    private final long retryBackoff;
+    private final ConsistencyLevel readConsistencyLevel;
+
+    public TenantAwareTimeSeriesTemplate(@Nonnull final Environment env, @Nonnull final Logger logger,
+                                         @Nonnull final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider,
+                                         @Nonnull final CassandraSessionProvider cassandraSessionProvider) {
+        super();
+        Assert.notNull(env, "An environment must be given!");
+        Assert.notNull(logger, "A logger must be given!");
+        Assert.notNull(tenantAwareCassandraMapperProvider, "A mapper provider must be given!");
+        Assert.notNull(cassandraSessionProvider, "A Cassandra session provider must be given!");
+        this.env = env;
+        this.logger = logger;
+        this.tenantAwareCassandraMapperProvider = tenantAwareCassandraMapperProvider;
+        this.usageAccountant = cassandraSessionProvider.getUsageAccountant();
+        this.buffers = new ConcurrentHashMap<>();
+        this.rangeStatementCache = new ConcurrentHashMap<>();
+        this.rangeStatementMemoizer = new Memoizer<>(this.rangeStatementCache);
+        this.definitions = new ConcurrentHashMap<>();
+        this.batchSize = Integer.valueOf(this.env.getProperty(CassandraConnectorConstants.TIMESERIES_BATCH_SIZE_PROP,
+                CassandraConnectorConstants.TIMESERIES_BATCH_SIZE_PROP_DEFAULT));
+        this.concurrency = Integer.valueOf(this.env.getProperty(CassandraConnectorConstants.TIMESERIES_CONCURRENCY_PROP,
+                CassandraConnectorConstants.TIMESERIES_CONCURRENCY_PROP_DEFAULT));
+        this.retries = Integer.valueOf(this.env.getProperty(CassandraConnectorConstants.TIMESERIES_RETRIES_PROP,
+                CassandraConnectorConstants.TIMESERIES_RETRIES_PROP_DEFAULT));
+        this.retryBackoff = Long.valueOf(this.env.getProperty(CassandraConnectorConstants.TIMESERIES_RETRY_BACKOFF_PROP,
+                CassandraConnectorConstants.TIMESERIES_RETRY_BACKOFF_PROP_DEFAULT));
+        this.readConsistencyLevel = ConsistencyLevel.valueOf(this.env.getProperty(
+                CassandraConnectorConstants.CONSISTENCY_LEVEL_READ_PROP, CassandraConnectorConstants.CONSISTENCY_LEVEL_PROP_DEFAULT));
+        this.window = new Semaphore(this.concurrency);
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mage-timeseries-flush-");
+        threadFactory.setDaemon(true);
+        this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        // separate from the flush thread, which may block on the in-flight window that retries release
+        final CustomizableThreadFactory retryThreadFactory = new CustomizableThreadFactory("mage-timeseries-retry-");
+        retryThreadFactory.setDaemon(true);
+        this.retryExecutorService = Executors.newSingleThreadScheduledExecutor(retryThreadFactory);
+        final long flushInterval = Long.valueOf(this.env.getProperty(CassandraConnectorConstants.TIMESERIES_FLUSH_INTERVAL_PROP,
+                CassandraConnectorConstants.TIMESERIES_FLUSH_INTERVAL_PROP_DEFAULT));
+        this.scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                this.buffers.forEach((partitionKey, buffer) -> {
+                    // a buffer without appends for a whole interval is retired, so the map only holds active partitions
+                    if (!this.submit(buffer)) {
+                        this.submit(buffer.session, buffer.retire());
+                        this.buffers.remove(partitionKey, buffer);
+                    }
+                });
+            } catch (final RuntimeException rex) {
+                this.logger.warn("Could not flush time series buffers.", rex);
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        cassandraSessionProvider.addTenantChangeListener(identifier -> {
+            this.rangeStatementCache.keySet().removeIf(rangeKey -> rangeKey.identifier.equals(identifier));
+            this.buffers.forEach((partitionKey, buffer) -> {
+                if (partitionKey.identifier.equals(identifier)) {
+                    this.submit(buffer.session, buffer.retire());
+                    this.buffers.remove(partitionKey, buffer);
+                }
+            });
+        });
+    }
+
+    public <T> void append(@Nonnull final T entity) {
+        if (TenantContextHolder.getIdentifier().isPresent()) {
+            final String identifier = TenantContextHolder.getIdentifier().get();
+            this.append(identifier, entity);
+        } else {
+            throw new IllegalArgumentException("Could not find tenant identifier, make sure you set an identifier using TenantContextHolder.");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> void append(@Nonnull final String identifier, @Nonnull final T entity) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(entity, "An entity must be given!");
+
+        final Class<T> type = (Class<T>) entity.getClass();
+        final Definition definition = this.getDefinition(type);
+        final Object timestamp = definition.timestamp.getValue(entity);
+        Assert.notNull(timestamp, "Entity must have a timestamp!");
+        definition.bucket.setValue(entity, definition.toValue(definition.bucket, definition.bucketOf(definition.toMillis(timestamp))));
+
+        final Mapper<T> mapper = this.tenantAwareCassandraMapperProvider.getMapper(identifier, type);
+        final ArrayList<Object> partitionValues = new ArrayList<>();
+        definition.entityMetadata.getPartitionKey().forEach(property -> partitionValues.add(property.getValue(entity)));
+        final PartitionKey partitionKey = new PartitionKey(identifier, type, partitionValues);
+
+        final Statement statement = mapper.saveQuery(entity);
+        while (true) {
+            final Buffer buffer = this.buffers.computeIfAbsent(partitionKey,
+                    (key) -> new Buffer(mapper.getManager().getSession()));
+            final int size = buffer.add(statement);
+            if (size >= this.batchSize) {
+                this.submit(buffer);
+            }
+            if (size > 0) {
+                return;
+            }
+            this.buffers.remove(partitionKey, buffer);
+        }
+    }
+
+    public void flush() {
+        this.buffers.values().forEach(buffer -> this.submit(buffer));
+        this.window.acquireUninterruptibly(this.concurrency);
+        this.window.release(this.concurrency);
+    }
+
+    @Nonnull
+    public <T> Stream<T> findRange(@Nonnull final Class<T> type, @Nonnull final Date from, @Nonnull final Date to,
+                                   @Nonnull final Object... partitionKey) {
+        if (TenantContextHolder.getIdentifier().isPresent()) {
+            final String identifier = TenantContextHolder.getIdentifier().get();
+            return this.findRange(identifier, type, from, to, partitionKey);
+        } else {
+            throw new IllegalArgumentException("Could not find tenant identifier, make sure you set an identifier using TenantContextHolder.");
+        }
+    }
+
+    @Nonnull
+    public <T> Stream<T> findRange(@Nonnull final String identifier, @Nonnull final Class<T> type,
+                                   @Nonnull final Date from, @Nonnull final Date to,
+                                   @Nonnull final Object... partitionKey) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(type, "A type must be given!");
+        Assert.notNull(from, "A start must be given!");
+        Assert.notNull(to, "An end must be given!");
+        Assert.isTrue(from.before(to), "Start must be before end!");
+
+        final Definition definition = this.getDefinition(type);
+        final List<EntityMetadata.Property> partitionKeyProperties = definition.entityMetadata.getPartitionKey();
+        Assert.isTrue(partitionKey.length == partitionKeyProperties.size() - 1,
+                "Type [" + type.getSimpleName() + "] expects [" + (partitionKeyProperties.size() - 1)
+                        + "] partition key values besides the bucket!");
+
+        final Mapper<T> mapper = this.tenantAwareCassandraMapperProvider.getMapper(identifier, type);
+        final Session session = mapper.getManager().getSession();
+        final PreparedStatement rangeStatement = this.rangeStatementMemoizer.computeIfAbsent(new RangeKey(identifier, type),
+                (key) -> session.prepare(this.buildRangeQuery(definition)).setConsistencyLevel(this.readConsistencyLevel));
+
+        // buckets are disjoint and each is read in timestamp order, so reading them one after another yields an ordered stream
+        final ArrayList<Statement> statements = new ArrayList<>();
+        final long end = to.getTime();
+        for (long bucket = definition.bucketOf(from.getTime()); bucket < end; bucket += definition.granularity) {
+            final ArrayList<Object> values = new ArrayList<>(Arrays.asList(partitionKey));
+            values.add(definition.bucketPosition, definition.toValue(definition.bucket, bucket));
+            values.add(definition.toValue(definition.timestamp, Math.max(bucket, from.getTime())));
+            values.add(definition.toValue(definition.timestamp, Math.min(bucket + definition.granularity, end)));
+            statements.add(rangeStatement.bind(values.toArray()));
+        }
+
+        final Iterator<T> iterator = new RangeIterator<>(session, mapper, statements, this.concurrency,
+                resultSet -> this.usageAccountant.meter(session, definition.entityMetadata.getTableName(), resultSet));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @PreDestroy
+    private void cleanUp() {
+        this.scheduledExecutorService.shutdownNow();
+        this.flush();
+        this.retryExecutorService.shutdown();
+    }
+
+    private Select buildRangeQuery(final Definition definition) {
+        final EntityMetadata<?> entityMetadata = definition.entityMetadata;
+        final Select select = entityMetadata.getKeyspace().isPresent()
+                ? QueryBuilder.select().all().from(entityMetadata.getKeyspace().get(), entityMetadata.getTableName())
+                : QueryBuilder.select().all().from(entityMetadata.getTableName());
+        final Select.Where where = select.where();
+        entityMetadata.getPartitionKey().forEach(property -> where.and(QueryBuilder.eq(property.getColumnName(), QueryBuilder.bindMarker())));
+        where.and(QueryBuilder.gte(definition.timestamp.getColumnName(), QueryBuilder.bindMarker()));
+        where.and(QueryBuilder.lt(definition.timestamp.getColumnName(), QueryBuilder.bindMarker()));
+        select.orderBy(QueryBuilder.asc(definition.timestamp.getColumnName()));
+        return select;
+    }
+
+    private boolean submit(final Buffer buffer) {
+        return this.submit(buffer.session, buffer.drain());
+    }
+
+    private boolean submit(final Session session, final List<Statement> statements) {
+        for (int i = 0; i < statements.size(); i += this.batchSize) {
+            final List<Statement> chunk = statements.subList(i, Math.min(statements.size(), i + this.batchSize));
+            final Statement statement;
+            if (chunk.size() == 1) {
+                statement = chunk.get(0);
+            } else {
+                // all statements target the same partition, so the batch is applied as a single mutation
+                statement = new BatchStatement(BatchStatement.Type.UNLOGGED)
+                        .addAll(chunk)
+                        .setConsistencyLevel(chunk.get(0).getConsistencyLevel());
+            }
+            this.window.acquireUninterruptibly();
+            this.execute(session, statement, chunk.size(), 0);
+        }
+        return !statements.isEmpty();
+    }
+
+    private void execute(final Session session, final Statement statement, final int rows, final int attempt) {
+        Futures.addCallback(session.executeAsync(statement), new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(final ResultSet resultSet) {
+                TenantAwareTimeSeriesTemplate.this.window.release();
+            }
+
+            @Override
+            public void onFailure(final Throwable throwable) {
+                if (attempt < TenantAwareTimeSeriesTemplate.this.retries) {
+                    TenantAwareTimeSeriesTemplate.this.retry(session, statement, rows, attempt + 1, throwable);
+                } else {
+                    TenantAwareTimeSeriesTemplate.this.logger.warn("Could not append [" + rows + "] rows.", throwable);
+                    TenantAwareTimeSeriesTemplate.this.window.release();
+                }
+            }
+        });
+    }
+
+    private void retry(final Session session, final Statement statement, final int rows, final int attempt,
+                       final Throwable throwable) {
+        // back off exponentially instead of hitting a struggling node again right from the driver callback
+        final long delay = this.retryBackoff << Math.min(attempt - 1, 16);
+        this.logger.debug("Retry batch of [" + rows + "] appends in [" + delay + "] ms after failure.", throwable);
+        try {
+            this.retryExecutorService.schedule(() -> this.execute(session, statement, rows, attempt),
+                    delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException reex) {
+            this.logger.warn("Could not append [" + rows + "] rows.", throwable);
+            this.window.release();
+        }
+    }
+
+    private Definition getDefinition(final Class<?> type) {
+        return this.definitions.computeIfAbsent(type, Definition::new);
+    }
+
+    private static final class Definition {
+
+        private final EntityMetadata<?> entityMetadata;
+        private final EntityMetadata.Property bucket;
+        private final EntityMetadata.Property timestamp;
+        private final int bucketPosition;
+        private final long granularity;
+
+        private Definition(final Class<?> type) {
+            super();
+            final TimeSeries timeSeries = type.getAnnotation(TimeSeries.class);
+            Assert.notNull(timeSeries, "Type [" + type.getSimpleName() + "] is not annotated with @TimeSeries!");
+            this.entityMetadata = EntityMetadata.of(type);
+            this.bucket = this.entityMetadata.getProperty(timeSeries.bucketColumn()).orElseThrow(
+                    () -> new IllegalArgumentException("Unknown bucket column [" + timeSeries.bucketColumn() + "]!"));
+            this.timestamp = this.entityMetadata.getProperty(timeSeries.timestampColumn()).orElseThrow(
+                    () -> new IllegalArgumentException("Unknown timestamp column [" + timeSeries.timestampColumn() + "]!"));
+            Assert.isTrue(this.bucket.isPartitionKey(), "Bucket column must be part of the partition key!");
+            Assert.isTrue(!this.entityMetadata.getClusteringColumns().isEmpty()
+                            && this.entityMetadata.getClusteringColumns().get(0) == this.timestamp,
+                    "Timestamp column must be the first clustering column!");
+            this.bucketPosition = this.entityMetadata.getPartitionKey().indexOf(this.bucket);
+            this.granularity = timeSeries.unit().toMillis(timeSeries.granularity());
+            Assert.isTrue(this.granularity > 0L, "Granularity must be greater than zero!");
+        }
+
+        private long bucketOf(final long millis) {
+            return Math.floorDiv(millis, this.granularity) * this.granularity;
+        }
+
+        private long toMillis(final Object value) {
+            if (value instanceof Date) {
+                return ((Date) value).getTime();
+            } else if (value instanceof Long) {
+                return (Long) value;
+            } else {
+                throw new IllegalArgumentException("Unsupported time type [" + value.getClass().getSimpleName() + "]!");
+            }
+        }
+
+        private Object toValue(final EntityMetadata.Property property, final long millis) {
+            if (Date.class.equals(property.getJavaType())) {
+                return new Date(millis);
+            } else if (Long.class.equals(property.getJavaType()) || Long.TYPE.equals(property.getJavaType())) {
+                return millis;
+            } else {
+                throw new IllegalArgumentException("Unsupported time type [" + property.getJavaType().getSimpleName() + "]!");
+            }
+        }
+    }
+
+    private static final class Buffer {
+
+        private final Session session;
+        private ArrayList<Statement> statements;
+        private boolean retired;
+
+        private Buffer(final Session session) {
+            super();
+            this.session = session;
+            this.statements = new ArrayList<>();
+        }
+
+        private synchronized int add(final Statement statement) {
+            if (this.retired) {
+                return 0;
+            }
+            this.statements.add(statement);
+            return this.statements.size();
+        }
+
+        private synchronized List<Statement> retire() {
+            this.retired = true;
+            return this.drain();
+        }
+
+        private synchronized List<Statement> drain() {
+            if (this.statements.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<Statement> drained = this.statements;
+            this.statements = new ArrayList<>();
+            return drained;
+        }
+    }
+
+    private static final class RangeIterator<T> implements Iterator<T> {
+
+        private final Session session;
+        private final Mapper<T> mapper;
+        private final Iterator<Statement> statements;
+        private final ArrayDeque<ResultSetFuture> pending;
+        private final int concurrency;
+        private final UnaryOperator<ResultSet> meter;
+        private Iterator<T> current;
+
+        private RangeIterator(final Session session, final Mapper<T> mapper, final List<Statement> statements,
+                              final int concurrency, final UnaryOperator<ResultSet> meter) {
+            super();
+            this.session = session;
+            this.mapper = mapper;
+            this.statements = statements.iterator();
+            this.pending = new ArrayDeque<>();
+            this.concurrency = concurrency;
+            this.meter = meter;
+            this.current = Collections.emptyIterator();
+            this.prefetch();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!this.current.hasNext()) {
+                final ResultSetFuture next = this.pending.poll();
+                if (next == null) {
+                    return false;
+                }
+                this.prefetch();
+                this.current = this.mapper.map(this.meter.apply(next.getUninterruptibly())).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.current.next();
+        }
+
+        private void prefetch() {
+            while (this.pending.size() < this.concurrency && this.statements.hasNext()) {
+                this.pending.add(this.session.executeAsync(this.statements.next()));
+            }
+        }
+    }
+
+    private static final class PartitionKey {
+
+        private final String identifier;
+        private final Class<?> type;
+        private final List<Object> values;
+
+        private PartitionKey(final String identifier, final Class<?> type, final List<Object> values) {
+            super();
+            this.identifier = identifier;
+            this.type = type;
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            PartitionKey that = (PartitionKey) o;
+
+            return identifier.equals(that.identifier) && type.equals(that.type) && values.equals(that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(identifier, type, values);
+        }
+    }
+
+    private static final class RangeKey {
+
+        private final String identifier;
+        private final Class<?> type;
+
+        private RangeKey(final String identifier, final Class<?> type) {
+            super();
+            this.identifier = identifier;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            RangeKey that = (RangeKey) o;
+
+            return identifier.equals(that.identifier) && type.equals(that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(identifier, type);
+        }
+    }
+}
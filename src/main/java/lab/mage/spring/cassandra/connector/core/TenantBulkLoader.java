@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.Configuration;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.mapping.Mapper;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.CsvRecordReader;
+import lab.mage.spring.cassandra.connector.util.JsonLinesRecordReader;
+import lab.mage.spring.cassandra.connector.util.RecordReader;
+import lab.mage.spring.cassandra.connector.util.TenantContextHolder;
+import lab.mage.spring.cassandra.connector.util.ValueConverter;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+public final class TenantBulkLoader {
+
+    public enum Format {
+        CSV,
+        JSON_LINES
+    }
+
+    private final Logger logger;
+    private final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider;
+    private final int concurrency;
+    private final int chunkSize;
+    private final int batchSize;
+    private final int retries;
+    private final long retryBackoff;
+    private final ScheduledExecutorService retryExecutorService;
+
+    public TenantBulkLoader(@Nonnull final Environment env, @Nonnull final Logger logger,
+                            @Nonnull final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider) {
+        super();
+        Assert.notNull(env, "An environment must be given!");
+        Assert.notNull(logger, "A logger must be given!");
+        Assert.notNull(tenantAwareCassandraMapperProvider, "A tenant aware mapper provider must be given!");
+        this.logger = logger;
+        this.tenantAwareCassandraMapperProvider = tenantAwareCassandraMapperProvider;
+        this.concurrency = Integer.valueOf(env.getProperty(CassandraConnectorConstants.BULK_CONCURRENCY_PROP,
+                CassandraConnectorConstants.BULK_CONCURRENCY_PROP_DEFAULT));
+        this.chunkSize = Integer.valueOf(env.getProperty(CassandraConnectorConstants.BULK_CHUNK_SIZE_PROP,
+                CassandraConnectorConstants.BULK_CHUNK_SIZE_PROP_DEFAULT));
+        this.batchSize = Integer.valueOf(env.getProperty(CassandraConnectorConstants.BULK_BATCH_SIZE_PROP,
+                CassandraConnectorConstants.BULK_BATCH_SIZE_PROP_DEFAULT));
+        this.retries = Integer.valueOf(env.getProperty(CassandraConnectorConstants.BULK_RETRIES_PROP,
+                CassandraConnectorConstants.BULK_RETRIES_PROP_DEFAULT));
+        this.retryBackoff = Long.valueOf(env.getProperty(CassandraConnectorConstants.BULK_RETRY_BACKOFF_PROP,
+                CassandraConnectorConstants.BULK_RETRY_BACKOFF_PROP_DEFAULT));
+        Assert.isTrue(this.concurrency > 0, "Bulk load concurrency must be greater than zero!");
+        Assert.isTrue(this.chunkSize > 0, "Bulk load chunk size must be greater than zero!");
+        Assert.isTrue(this.batchSize > 0, "Bulk load batch size must be greater than zero!");
+        Assert.isTrue(this.retryBackoff >= 0L, "Bulk load retry backoff must not be negative!");
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mage-bulk-retry-");
+        threadFactory.setDaemon(true);
+        this.retryExecutorService = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    @Nonnull
+    public <T> BulkLoadResult load(@Nonnull final Class<T> type, @Nonnull final Path path,
+                                   @Nonnull final Format format) throws IOException {
+        if (TenantContextHolder.getIdentifier().isPresent()) {
+            final String identifier = TenantContextHolder.getIdentifier().get();
+            return this.load(identifier, type, path, format, progress -> { });
+        } else {
+            throw new IllegalArgumentException("Could not find tenant identifier, make sure you set an identifier using TenantContextHolder.");
+        }
+    }
+
+    @Nonnull
+    public <T> BulkLoadResult load(@Nonnull final String identifier, @Nonnull final Class<T> type,
+                                   @Nonnull final Path path, @Nonnull final Format format,
+                                   @Nonnull final Consumer<BulkLoadResult> progressListener) throws IOException {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(type, "A type must be given!");
+        Assert.notNull(path, "A path must be given!");
+        Assert.notNull(format, "A format must be given!");
+        Assert.notNull(progressListener, "A progress listener must be given!");
+
+        final Mapper<T> mapper = this.tenantAwareCassandraMapperProvider.getMapper(identifier, type);
+        final Session session = mapper.getManager().getSession();
+        final Configuration configuration = session.getCluster().getConfiguration();
+        final ProtocolVersion protocolVersion = configuration.getProtocolOptions().getProtocolVersion();
+        final CodecRegistry codecRegistry = configuration.getCodecRegistry();
+        final EntityMetadata<T> entityMetadata = EntityMetadata.of(type);
+
+        this.logger.info("Bulk load [" + path + "] into table [" + entityMetadata.getTableName()
+                + "] for tenant [" + identifier + "].");
+
+        final Pipeline pipeline = new Pipeline(session, progressListener);
+        LinkedHashMap<ByteBuffer, List<Statement>> chunk = new LinkedHashMap<>();
+        int chunkRows = 0;
+        try (final RecordReader recordReader = format == Format.CSV
+                ? new CsvRecordReader(path)
+                : new JsonLinesRecordReader(path)) {
+            Map<String, String> record;
+            while ((record = recordReader.next()) != null) {
+                final T entity;
+                try {
+                    entity = this.toEntity(entityMetadata, record);
+                } catch (final IllegalArgumentException iaex) {
+                    pipeline.fail(1, iaex);
+                    continue;
+                }
+                // columns missing in the file are not written as null, which would create tombstones
+                final Statement statement = mapper.saveQuery(entity, Mapper.Option.saveNullFields(false));
+                // rows of the same partition are grouped, so they can be written with a single batch
+                chunk.computeIfAbsent(statement.getRoutingKey(protocolVersion, codecRegistry), (key) -> new ArrayList<>())
+                        .add(statement);
+                if (++chunkRows >= this.chunkSize) {
+                    pipeline.submit(chunk);
+                    chunk = new LinkedHashMap<>();
+                    chunkRows = 0;
+                }
+            }
+        } catch (final IOException ioex) {
+            // rows read before the malformed record are written and awaited, so the result reports them
+            pipeline.submit(chunk);
+            final BulkLoadResult bulkLoadResult = pipeline.await();
+            progressListener.accept(bulkLoadResult);
+            this.logger.warn("Bulk load into table [" + entityMetadata.getTableName() + "] for tenant ["
+                    + identifier + "] aborted: " + bulkLoadResult + ".", ioex);
+            throw ioex;
+        }
+        pipeline.submit(chunk);
+
+        final BulkLoadResult bulkLoadResult = pipeline.await();
+        this.logger.info("Bulk load into table [" + entityMetadata.getTableName() + "] for tenant ["
+                + identifier + "] finished: " + bulkLoadResult + ".");
+        return bulkLoadResult;
+    }
+
+    private <T> T toEntity(final EntityMetadata<T> entityMetadata, final Map<String, String> record) {
+        final T entity = entityMetadata.newInstance();
+        record.forEach((columnName, value) -> {
+            final EntityMetadata.Property property = entityMetadata.getProperty(columnName)
+                    .orElseThrow(() -> new IllegalArgumentException("Column [" + columnName + "] unknown!"));
+            property.setValue(entity, ValueConverter.convert(value, property.getJavaType()));
+        });
+        return entity;
+    }
+
+    @PreDestroy
+    private void cleanUp() {
+        this.retryExecutorService.shutdownNow();
+    }
+
+    private final class Pipeline {
+
+        private final Session session;
+        private final Consumer<BulkLoadResult> progressListener;
+        private final Semaphore window;
+        private final AtomicLong loadedRows;
+        private final AtomicLong failedRows;
+        private final AtomicReference<Throwable> firstError;
+        private final long startNanos;
+
+        private Pipeline(final Session session, final Consumer<BulkLoadResult> progressListener) {
+            super();
+            this.session = session;
+            this.progressListener = progressListener;
+            this.window = new Semaphore(TenantBulkLoader.this.concurrency);
+            this.loadedRows = new AtomicLong();
+            this.failedRows = new AtomicLong();
+            this.firstError = new AtomicReference<>();
+            this.startNanos = System.nanoTime();
+        }
+
+        private void submit(final Map<ByteBuffer, List<Statement>> chunk) {
+            for (final List<Statement> partition : chunk.values()) {
+                for (int i = 0; i < partition.size(); i += TenantBulkLoader.this.batchSize) {
+                    final List<Statement> statements =
+                            partition.subList(i, Math.min(partition.size(), i + TenantBulkLoader.this.batchSize));
+                    final Statement statement;
+                    if (statements.size() == 1) {
+                        statement = statements.get(0);
+                    } else {
+                        statement = new BatchStatement(BatchStatement.Type.UNLOGGED)
+                                .addAll(statements)
+                                .setConsistencyLevel(statements.get(0).getConsistencyLevel());
+                    }
+                    this.window.acquireUninterruptibly();
+                    this.execute(statement, statements.size(), 0);
+                }
+            }
+            this.progressListener.accept(this.snapshot());
+        }
+
+        private void execute(final Statement statement, final int rows, final int attempt) {
+            Futures.addCallback(this.session.executeAsync(statement), new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(final ResultSet resultSet) {
+                    Pipeline.this.loadedRows.addAndGet(rows);
+                    Pipeline.this.window.release();
+                }
+
+                @Override
+                public void onFailure(final Throwable throwable) {
+                    if (attempt < TenantBulkLoader.this.retries) {
+                        Pipeline.this.retry(statement, rows, attempt + 1, throwable);
+                    } else {
+                        Pipeline.this.fail(rows, throwable);
+                        Pipeline.this.window.release();
+                    }
+                }
+            });
+        }
+
+        private void retry(final Statement statement, final int rows, final int attempt, final Throwable throwable) {
+            // back off exponentially, an overloaded node would be hit again right away by an immediate retry
+            final long delay = TenantBulkLoader.this.retryBackoff << Math.min(attempt - 1, 16);
+            TenantBulkLoader.this.logger.debug("Retry chunk of [" + rows + "] rows in [" + delay + "] ms after failure.", throwable);
+            try {
+                TenantBulkLoader.this.retryExecutorService.schedule(() -> this.execute(statement, rows, attempt),
+                        delay, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException reex) {
+                this.fail(rows, throwable);
+                this.window.release();
+            }
+        }
+
+        private void fail(final int rows, final Throwable throwable) {
+            if (this.firstError.compareAndSet(null, throwable)) {
+                TenantBulkLoader.this.logger.warn("Could not load rows.", throwable);
+            }
+            this.failedRows.addAndGet(rows);
+        }
+
+        private BulkLoadResult await() {
+            this.window.acquireUninterruptibly(TenantBulkLoader.this.concurrency);
+            this.window.release(TenantBulkLoader.this.concurrency);
+            return this.snapshot();
+        }
+
+        private BulkLoadResult snapshot() {
+            return new BulkLoadResult(this.loadedRows.get(), this.failedRows.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos), this.firstError.get());
+        }
+    }
+}
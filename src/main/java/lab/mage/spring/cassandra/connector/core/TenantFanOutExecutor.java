@@ -0,0 +1,292 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import lab.mage.spring.cassandra.connector.domain.TenantInfo;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.ThreadPools;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public final class TenantFanOutExecutor {
+
+    private final Logger logger;
+    private final CassandraSessionProvider cassandraSessionProvider;
+    private final int concurrency;
+    private final int clusterConcurrency;
+    private final ExecutorService executorService;
+
+    public TenantFanOutExecutor(@Nonnull final Environment env, @Nonnull final Logger logger,
+                                @Nonnull final CassandraSessionProvider cassandraSessionProvider) {
+        super();
+        Assert.notNull(env, "An environment must be given!");
+        Assert.notNull(logger, "A logger must be given!");
+        Assert.notNull(cassandraSessionProvider, "A Cassandra session provider must be given!");
+        this.logger = logger;
+        this.cassandraSessionProvider = cassandraSessionProvider;
+        this.concurrency = Integer.valueOf(env.getProperty(CassandraConnectorConstants.FAN_OUT_CONCURRENCY_PROP,
+                CassandraConnectorConstants.FAN_OUT_CONCURRENCY_PROP_DEFAULT));
+        this.clusterConcurrency = Integer.valueOf(env.getProperty(CassandraConnectorConstants.FAN_OUT_CLUSTER_CONCURRENCY_PROP,
+                CassandraConnectorConstants.FAN_OUT_CLUSTER_CONCURRENCY_PROP_DEFAULT));
+        Assert.isTrue(this.concurrency > 0, "Fan-out concurrency must be greater than zero!");
+        Assert.isTrue(this.clusterConcurrency > 0, "Fan-out cluster concurrency must be greater than zero!");
+
+        this.executorService = ThreadPools.newBoundedThreadPool("mage-fan-out-", this.concurrency);
+    }
+
+    @Nonnull
+    public <R> Stream<TenantResult<R>> execute(@Nonnull final Statement statement,
+                                               @Nonnull final Function<Row, R> rowMapper,
+                                               final long timeout, @Nonnull final TimeUnit unit) {
+        return this.execute(tenantInfo -> true, statement, rowMapper, timeout, unit);
+    }
+
+    @Nonnull
+    public <R> Stream<TenantResult<R>> execute(@Nonnull final Predicate<TenantInfo> tenantFilter,
+                                               @Nonnull final Statement statement,
+                                               @Nonnull final Function<Row, R> rowMapper,
+                                               final long timeout, @Nonnull final TimeUnit unit) {
+        Assert.notNull(tenantFilter, "A tenant filter must be given!");
+        Assert.notNull(statement, "A statement must be given!");
+        Assert.notNull(rowMapper, "A row mapper must be given!");
+        Assert.notNull(unit, "A time unit must be given!");
+        Assert.isTrue(timeout > 0L, "A timeout must be greater than zero!");
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final List<TenantInfo> tenantInfos = this.cassandraSessionProvider.getTenantInfos().stream()
+                .filter(tenantFilter)
+                .collect(Collectors.toList());
+        final Set<String> pending = ConcurrentHashMap.newKeySet();
+        tenantInfos.forEach(tenantInfo -> pending.add(tenantInfo.getIdentifier()));
+        final BlockingQueue<TenantResult<R>> results = new LinkedBlockingQueue<>();
+
+        this.logger.info("Fan out query to [" + tenantInfos.size() + "] tenants.");
+
+        final List<ClusterQueue> clusterQueues = this.groupByCluster(tenantInfos, pending, results);
+        new Dispatcher<>(clusterQueues, statement, rowMapper, deadline, pending, results).dispatch();
+
+        return StreamSupport.stream(new ResultSpliterator<>(tenantInfos.size(), deadline, pending, results), false);
+    }
+
+    private <R> List<ClusterQueue> groupByCluster(final List<TenantInfo> tenantInfos, final Set<String> pending,
+                                                  final BlockingQueue<TenantResult<R>> results) {
+        // keyed by the resolved cluster, tenants naming the same ring differently share its permits
+        final LinkedHashMap<Cluster, ClusterQueue> clusterQueues = new LinkedHashMap<>();
+        for (final TenantInfo tenantInfo : tenantInfos) {
+            final Cluster cluster;
+            try {
+                cluster = this.cassandraSessionProvider.getCluster(tenantInfo.getClusterName(), tenantInfo.getContactPoints());
+            } catch (final RuntimeException rex) {
+                this.logger.warn("Could not resolve cluster of tenant [" + tenantInfo.getIdentifier() + "].", rex);
+                pending.remove(tenantInfo.getIdentifier());
+                results.offer(TenantResult.failure(tenantInfo.getIdentifier(), rex));
+                continue;
+            }
+            clusterQueues.computeIfAbsent(cluster, (key) -> new ClusterQueue())
+                    .tenantInfos.add(tenantInfo);
+        }
+        return new ArrayList<>(clusterQueues.values());
+    }
+
+    @PreDestroy
+    private void cleanUp() {
+        this.executorService.shutdownNow();
+    }
+
+    private final class Dispatcher<R> {
+
+        private final List<ClusterQueue> clusterQueues;
+        private final Statement statement;
+        private final Function<Row, R> rowMapper;
+        private final long deadline;
+        private final Set<String> pending;
+        private final BlockingQueue<TenantResult<R>> results;
+        private int inFlight;
+        private int nextCluster;
+
+        private Dispatcher(final List<ClusterQueue> clusterQueues, final Statement statement,
+                           final Function<Row, R> rowMapper, final long deadline,
+                           final Set<String> pending, final BlockingQueue<TenantResult<R>> results) {
+            super();
+            this.clusterQueues = clusterQueues;
+            this.statement = statement;
+            this.rowMapper = rowMapper;
+            this.deadline = deadline;
+            this.pending = pending;
+            this.results = results;
+        }
+
+        // called initially and whenever a tenant completes, so no thread blocks waiting for a free slot
+        private synchronized void dispatch() {
+            while (this.inFlight < TenantFanOutExecutor.this.concurrency && !this.clusterQueues.isEmpty()
+                    && System.nanoTime() < this.deadline) {
+                // round robin over the clusters with a free slot, tenants of a saturated cluster wait without
+                // holding back the tenants of the others
+                ClusterQueue clusterQueue = null;
+                for (int i = 0; i < this.clusterQueues.size() && clusterQueue == null; i++) {
+                    final ClusterQueue candidate = this.clusterQueues.get((this.nextCluster + i) % this.clusterQueues.size());
+                    if (candidate.inFlight < TenantFanOutExecutor.this.clusterConcurrency) {
+                        clusterQueue = candidate;
+                        this.nextCluster = (this.nextCluster + i + 1) % this.clusterQueues.size();
+                    }
+                }
+                if (clusterQueue == null) {
+                    return;
+                }
+
+                final TenantInfo tenantInfo = clusterQueue.tenantInfos.poll();
+                if (clusterQueue.tenantInfos.isEmpty()) {
+                    this.clusterQueues.remove(clusterQueue);
+                }
+                this.inFlight++;
+                clusterQueue.inFlight++;
+                final ClusterQueue selectedClusterQueue = clusterQueue;
+                try {
+                    TenantFanOutExecutor.this.executorService.execute(() -> this.run(selectedClusterQueue, tenantInfo));
+                } catch (final RejectedExecutionException reex) {
+                    this.inFlight--;
+                    clusterQueue.inFlight--;
+                    this.complete(tenantInfo, TenantResult.failure(tenantInfo.getIdentifier(), reex));
+                }
+            }
+        }
+
+        private void run(final ClusterQueue clusterQueue, final TenantInfo tenantInfo) {
+            TenantResult<R> result;
+            try {
+                final Session session = TenantFanOutExecutor.this.cassandraSessionProvider.getSession(
+                        tenantInfo.getClusterName(), tenantInfo.getContactPoints(), tenantInfo.getKeyspace());
+                final ResultSet resultSet = session.execute(this.statement);
+                final List<R> values = new ArrayList<>(resultSet.getAvailableWithoutFetching());
+                for (final Row row : resultSet) {
+                    values.add(this.rowMapper.apply(row));
+                }
+                result = TenantResult.success(tenantInfo.getIdentifier(), values);
+            } catch (final RuntimeException rex) {
+                TenantFanOutExecutor.this.logger.warn("Fan-out query failed for tenant [" + tenantInfo.getIdentifier() + "].", rex);
+                result = TenantResult.failure(tenantInfo.getIdentifier(), rex);
+            }
+            synchronized (this) {
+                this.inFlight--;
+                clusterQueue.inFlight--;
+            }
+            this.complete(tenantInfo, result);
+            this.dispatch();
+        }
+
+        private void complete(final TenantInfo tenantInfo, final TenantResult<R> result) {
+            if (this.pending.remove(tenantInfo.getIdentifier())) {
+                this.results.offer(result);
+            }
+        }
+    }
+
+    private static final class ClusterQueue {
+
+        private final ArrayDeque<TenantInfo> tenantInfos;
+        private int inFlight;
+
+        private ClusterQueue() {
+            super();
+            this.tenantInfos = new ArrayDeque<>();
+        }
+    }
+
+    private static final class ResultSpliterator<R> extends Spliterators.AbstractSpliterator<TenantResult<R>> {
+
+        private final int total;
+        private final long deadline;
+        private final Set<String> pending;
+        private final BlockingQueue<TenantResult<R>> results;
+        private int emitted;
+
+        private ResultSpliterator(final int total, final long deadline,
+                                  final Set<String> pending, final BlockingQueue<TenantResult<R>> results) {
+            super(total, Spliterator.SIZED | Spliterator.NONNULL);
+            this.total = total;
+            this.deadline = deadline;
+            this.pending = pending;
+            this.results = results;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super TenantResult<R>> action) {
+            if (this.emitted == this.total) {
+                return false;
+            }
+
+            TenantResult<R> result = null;
+            try {
+                result = this.results.poll(Math.max(0L, this.deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (final InterruptedException iex) {
+                Thread.currentThread().interrupt();
+            }
+
+            while (result == null) {
+                final Iterator<String> pendingIterator = this.pending.iterator();
+                if (pendingIterator.hasNext()) {
+                    final String identifier = pendingIterator.next();
+                    if (this.pending.remove(identifier)) {
+                        result = TenantResult.failure(identifier,
+                                new TimeoutException("Deadline exceeded for tenant [" + identifier + "]."));
+                    }
+                }
+                if (result == null) {
+                    // a worker claimed the last tenant, but has not published its result yet
+                    try {
+                        result = this.results.poll(10L, TimeUnit.MILLISECONDS);
+                    } catch (final InterruptedException iex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            this.emitted++;
+            action.accept(result);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.mapping.Mapper;
+import com.datastax.driver.mapping.MappingManager;
+import lab.mage.spring.cassandra.connector.domain.TenantInfo;
+import lab.mage.spring.cassandra.connector.util.TenantReference;
+import org.springframework.core.env.Environment;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+public final class TenantHandle implements TenantReference {
+
+    private static final Object[] NO_COMPONENTS = new Object[0];
+
+    private final int index;
+    private final TenantInfo tenantInfo;
+    private final Session session;
+    private final MappingManager mappingManager;
+    private final CircuitBreaker clusterCircuitBreaker;
+    private final CircuitBreaker keyspaceCircuitBreaker;
+    private final Environment env;
+    private final ConcurrentHashMap<String, PreparedStatement> preparedStatements;
+    private final Memoizer<String, PreparedStatement> preparedStatementMemoizer;
+    // alternating type and mapper or accessor, tenants use a handful of types so a linear scan beats a hash map
+    private volatile Object[] components;
+
+    TenantHandle(final int index, final TenantInfo tenantInfo, final Session session, final MappingManager mappingManager,
+                 final CircuitBreaker clusterCircuitBreaker, final CircuitBreaker keyspaceCircuitBreaker,
+                 final Environment env) {
+        this(index, tenantInfo, session, mappingManager, clusterCircuitBreaker, keyspaceCircuitBreaker, env,
+                new ConcurrentHashMap<>());
+    }
+
+    private TenantHandle(final int index, final TenantInfo tenantInfo, final Session session, final MappingManager mappingManager,
+                         final CircuitBreaker clusterCircuitBreaker, final CircuitBreaker keyspaceCircuitBreaker,
+                         final Environment env, final ConcurrentHashMap<String, PreparedStatement> preparedStatements) {
+        super();
+        this.index = index;
+        this.tenantInfo = tenantInfo;
+        this.session = session;
+        this.mappingManager = mappingManager;
+        this.clusterCircuitBreaker = clusterCircuitBreaker;
+        this.keyspaceCircuitBreaker = keyspaceCircuitBreaker;
+        this.env = env;
+        this.preparedStatements = preparedStatements;
+        this.preparedStatementMemoizer = new Memoizer<>(preparedStatements);
+        this.components = TenantHandle.NO_COMPONENTS;
+    }
+
+    @Nonnull
+    @Override
+    public String getIdentifier() {
+        return this.tenantInfo.getIdentifier();
+    }
+
+    public int getIndex() {
+        return this.index;
+    }
+
+    @Nonnull
+    public String getKeyspace() {
+        return this.tenantInfo.getKeyspace();
+    }
+
+    @Nonnull
+    public Session getSession() {
+        return this.session;
+    }
+
+    @Nonnull
+    public MappingManager getMappingManager() {
+        return this.mappingManager;
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public <T> Mapper<T> getMapper(@Nonnull final Class<T> type) {
+        Assert.notNull(type, "A type must be given!");
+        final Object mapper = this.lookup(type);
+        return mapper != null ? (Mapper<T>) mapper : (Mapper<T>) this.register(type, this::createMapper);
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public <A> A getAccessor(@Nonnull final Class<A> type) {
+        Assert.notNull(type, "A type must be given!");
+        final Object accessor = this.lookup(type);
+        // statements of an accessor are prepared on creation, caching it per tenant prepares them once
+        return accessor != null ? (A) accessor : (A) this.register(type, this.mappingManager::createAccessor);
+    }
+
+    @Nonnull
+    public PreparedStatement prepare(@Nonnull final RegularStatement statement) {
+        Assert.notNull(statement, "A statement must be given!");
+        // the query string names keyspace, table, and columns, so it identifies the statement within this session
+        return this.preparedStatementMemoizer.computeIfAbsent(statement.getQueryString(), (query) -> this.session.prepare(statement));
+    }
+
+    public void checkAvailable() {
+        if (this.clusterCircuitBreaker != null) {
+            this.clusterCircuitBreaker.check();
+        }
+        if (this.keyspaceCircuitBreaker != null) {
+            this.keyspaceCircuitBreaker.check();
+        }
+    }
+
+    TenantInfo getTenantInfo() {
+        return this.tenantInfo;
+    }
+
+    TenantHandle withTenantInfo(final TenantInfo tenantInfo) {
+        final TenantHandle tenantHandle = new TenantHandle(this.index, tenantInfo, this.session, this.mappingManager,
+                this.clusterCircuitBreaker, this.keyspaceCircuitBreaker, this.env, this.preparedStatements);
+        tenantHandle.components = this.components;
+        return tenantHandle;
+    }
+
+    private Object lookup(final Class<?> type) {
+        final Object[] currentComponents = this.components;
+        for (int i = 0; i < currentComponents.length; i += 2) {
+            if (currentComponents[i] == type) {
+                return currentComponents[i + 1];
+            }
+        }
+        return null;
+    }
+
+    private synchronized Object register(final Class<?> type, final Function<Class<?>, Object> factory) {
+        final Object[] currentComponents = this.components;
+        for (int i = 0; i < currentComponents.length; i += 2) {
+            if (currentComponents[i] == type) {
+                return currentComponents[i + 1];
+            }
+        }
+
+        final Object component = factory.apply(type);
+        final Object[] newComponents = new Object[currentComponents.length + 2];
+        System.arraycopy(currentComponents, 0, newComponents, 0, currentComponents.length);
+        newComponents[currentComponents.length] = type;
+        newComponents[currentComponents.length + 1] = component;
+        this.components = newComponents;
+        return component;
+    }
+
+    private Mapper<?> createMapper(final Class<?> type) {
+        final Mapper<?> mapper = this.mappingManager.mapper(type);
+        mapper.setDefaultDeleteOptions(OptionProvider.deleteConsistencyLevel(this.env));
+        mapper.setDefaultGetOptions(OptionProvider.readConsistencyLevel(this.env));
+        mapper.setDefaultSaveOptions(OptionProvider.writeConsistencyLevel(this.env));
+        return mapper;
+    }
+
+    @Override
+    public String toString() {
+        return "TenantHandle{" +
+                "identifier='" + this.getIdentifier() + '\'' +
+                ", index=" + this.index +
+                ", keyspace='" + this.getKeyspace() + '\'' +
+                '}';
+    }
+}
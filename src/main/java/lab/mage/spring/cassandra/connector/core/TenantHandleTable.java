@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class TenantHandleTable {
+
+    private static final Object TOMBSTONE = new Object();
+
+    // open addressing with linear probing, readers never lock, writers are serialized and publish
+    // through the volatile slot writes of the atomic arrays
+    private volatile AtomicReferenceArray<Object> slots;
+    private volatile AtomicReferenceArray<TenantHandle> handlesByIndex;
+    private int size;
+    private int usedSlots;
+    private int nextIndex;
+    // indices of removed tenants are handed out again, so arrays indexed by them stay as dense as the tenant set
+    private int[] freeIndices;
+    private int freeIndexCount;
+
+    TenantHandleTable() {
+        super();
+        this.slots = new AtomicReferenceArray<>(64);
+        this.handlesByIndex = new AtomicReferenceArray<>(32);
+        this.freeIndices = new int[16];
+    }
+
+    TenantHandle get(final String identifier) {
+        final AtomicReferenceArray<Object> currentSlots = this.slots;
+        final int mask = currentSlots.length() - 1;
+        for (int i = TenantHandleTable.spread(identifier.hashCode()) & mask; ; i = (i + 1) & mask) {
+            final Object slot = currentSlots.get(i);
+            if (slot == null) {
+                return null;
+            }
+            if (slot != TenantHandleTable.TOMBSTONE && ((TenantHandle) slot).getIdentifier().equals(identifier)) {
+                return (TenantHandle) slot;
+            }
+        }
+    }
+
+    boolean isCurrent(final TenantHandle tenantHandle) {
+        final AtomicReferenceArray<TenantHandle> currentHandles = this.handlesByIndex;
+        return tenantHandle.getIndex() < currentHandles.length() && currentHandles.get(tenantHandle.getIndex()) == tenantHandle;
+    }
+
+    synchronized int indexOf(final String identifier) {
+        final TenantHandle tenantHandle = this.get(identifier);
+        if (tenantHandle != null) {
+            return tenantHandle.getIndex();
+        }
+        return this.freeIndexCount > 0 ? this.freeIndices[--this.freeIndexCount] : this.nextIndex++;
+    }
+
+    // returns an index that was handed out but never published, e.g. because the handle could not be created
+    synchronized void releaseIndex(final int index) {
+        if (index >= this.handlesByIndex.length() || this.handlesByIndex.get(index) == null) {
+            this.pushFreeIndex(index);
+        }
+    }
+
+    synchronized TenantHandle put(final TenantHandle tenantHandle) {
+        final String identifier = tenantHandle.getIdentifier();
+        final AtomicReferenceArray<Object> currentSlots = this.slots;
+        final int mask = currentSlots.length() - 1;
+        int freeSlot = -1;
+        for (int i = TenantHandleTable.spread(identifier.hashCode()) & mask; ; i = (i + 1) & mask) {
+            final Object slot = currentSlots.get(i);
+            if (slot == null) {
+                if (freeSlot < 0) {
+                    freeSlot = i;
+                    this.usedSlots++;
+                }
+                break;
+            }
+            if (slot == TenantHandleTable.TOMBSTONE) {
+                if (freeSlot < 0) {
+                    freeSlot = i;
+                }
+            } else if (((TenantHandle) slot).getIdentifier().equals(identifier)) {
+                currentSlots.set(i, tenantHandle);
+                this.publishIndex(tenantHandle);
+                return (TenantHandle) slot;
+            }
+        }
+
+        currentSlots.set(freeSlot, tenantHandle);
+        this.publishIndex(tenantHandle);
+        this.size++;
+        if (this.usedSlots * 2 > currentSlots.length()) {
+            this.resize(Math.max(currentSlots.length(), Integer.highestOneBit(this.size * 4)));
+        }
+        return null;
+    }
+
+    synchronized TenantHandle remove(final String identifier) {
+        final AtomicReferenceArray<Object> currentSlots = this.slots;
+        final int mask = currentSlots.length() - 1;
+        for (int i = TenantHandleTable.spread(identifier.hashCode()) & mask; ; i = (i + 1) & mask) {
+            final Object slot = currentSlots.get(i);
+            if (slot == null) {
+                return null;
+            }
+            if (slot != TenantHandleTable.TOMBSTONE && ((TenantHandle) slot).getIdentifier().equals(identifier)) {
+                currentSlots.set(i, TenantHandleTable.TOMBSTONE);
+                this.handlesByIndex.set(((TenantHandle) slot).getIndex(), null);
+                this.pushFreeIndex(((TenantHandle) slot).getIndex());
+                this.size--;
+                return (TenantHandle) slot;
+            }
+        }
+    }
+
+    List<TenantHandle> values() {
+        final AtomicReferenceArray<Object> currentSlots = this.slots;
+        final ArrayList<TenantHandle> tenantHandles = new ArrayList<>();
+        for (int i = 0; i < currentSlots.length(); i++) {
+            final Object slot = currentSlots.get(i);
+            if (slot != null && slot != TenantHandleTable.TOMBSTONE) {
+                tenantHandles.add((TenantHandle) slot);
+            }
+        }
+        return tenantHandles;
+    }
+
+    synchronized void clear() {
+        this.slots = new AtomicReferenceArray<>(64);
+        this.handlesByIndex = new AtomicReferenceArray<>(32);
+        this.size = 0;
+        this.usedSlots = 0;
+        this.nextIndex = 0;
+        this.freeIndexCount = 0;
+    }
+
+    private void pushFreeIndex(final int index) {
+        if (this.freeIndexCount == this.freeIndices.length) {
+            this.freeIndices = Arrays.copyOf(this.freeIndices, this.freeIndices.length * 2);
+        }
+        this.freeIndices[this.freeIndexCount++] = index;
+    }
+
+    private void publishIndex(final TenantHandle tenantHandle) {
+        AtomicReferenceArray<TenantHandle> currentHandles = this.handlesByIndex;
+        if (tenantHandle.getIndex() >= currentHandles.length()) {
+            final AtomicReferenceArray<TenantHandle> newHandles =
+                    new AtomicReferenceArray<>(Integer.highestOneBit(tenantHandle.getIndex()) << 1);
+            for (int i = 0; i < currentHandles.length(); i++) {
+                newHandles.set(i, currentHandles.get(i));
+            }
+            this.handlesByIndex = newHandles;
+            currentHandles = newHandles;
+        }
+        currentHandles.set(tenantHandle.getIndex(), tenantHandle);
+    }
+
+    private void resize(final int capacity) {
+        final AtomicReferenceArray<Object> currentSlots = this.slots;
+        final AtomicReferenceArray<Object> newSlots = new AtomicReferenceArray<>(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < currentSlots.length(); i++) {
+            final Object slot = currentSlots.get(i);
+            if (slot == null || slot == TenantHandleTable.TOMBSTONE) {
+                continue;
+            }
+            int j = TenantHandleTable.spread(((TenantHandle) slot).getIdentifier().hashCode()) & mask;
+            while (newSlots.get(j) != null) {
+                j = (j + 1) & mask;
+            }
+            newSlots.set(j, slot);
+        }
+        this.usedSlots = this.size;
+        this.slots = newSlots;
+    }
+
+    private static int spread(final int hashCode) {
+        return hashCode ^ (hashCode >>> 16);
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.TableMetadata;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public final class TenantKeyspaceExporter {
+
+    private static final int FORMAT_MAGIC = 0x4d414745;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String MANIFEST_FILE = "manifest.properties";
+    private static final String SCHEMA_FILE = "schema.cql";
+    private static final String ROWS_FILE_SUFFIX = ".rows.gz";
+
+    private final Logger logger;
+    private final CassandraSessionProvider cassandraSessionProvider;
+    private final int fetchSize;
+    private final int concurrency;
+
+    public TenantKeyspaceExporter(@Nonnull final Environment env, @Nonnull final Logger logger,
+                                  @Nonnull final CassandraSessionProvider cassandraSessionProvider) {
+        super();
+        Assert.notNull(env, "An environment must be given!");
+        Assert.notNull(logger, "A logger must be given!");
+        Assert.notNull(cassandraSessionProvider, "A Cassandra session provider must be given!");
+        this.logger = logger;
+        this.cassandraSessionProvider = cassandraSessionProvider;
+        this.fetchSize = Integer.valueOf(env.getProperty(CassandraConnectorConstants.SCAN_FETCH_SIZE_PROP,
+                CassandraConnectorConstants.SCAN_FETCH_SIZE_PROP_DEFAULT));
+        this.concurrency = Integer.valueOf(env.getProperty(CassandraConnectorConstants.BULK_CONCURRENCY_PROP,
+                CassandraConnectorConstants.BULK_CONCURRENCY_PROP_DEFAULT));
+    }
+
+    @Nonnull
+    public Map<String, Long> exportTo(@Nonnull final String identifier, @Nonnull final Path directory) throws IOException {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(directory, "A directory must be given!");
+
+        final Session session = this.cassandraSessionProvider.getTenantSession(identifier);
+        final KeyspaceMetadata keyspaceMetadata = session.getCluster().getMetadata().getKeyspace(session.getLoggedKeyspace());
+        Assert.notNull(keyspaceMetadata, "Keyspace [" + session.getLoggedKeyspace() + "] unknown!");
+
+        Files.createDirectories(directory);
+        final Path schemaFile = directory.resolve(SCHEMA_FILE);
+        Files.write(schemaFile, keyspaceMetadata.exportAsString().getBytes(StandardCharsets.UTF_8));
+
+        final Properties manifest = new Properties();
+        manifest.setProperty("tenant", identifier);
+        manifest.setProperty("keyspace", keyspaceMetadata.getName());
+        // values are written in their native serialization, which depends on the protocol version
+        manifest.setProperty("protocol", session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion().name());
+        manifest.setProperty("schema.sha256", this.checksum(schemaFile));
+        final LinkedHashMap<String, Long> exportedRows = new LinkedHashMap<>();
+        for (final TableMetadata tableMetadata : keyspaceMetadata.getTables()) {
+            if (tableMetadata.getColumns().stream().anyMatch(column -> column.getType().getName() == DataType.Name.COUNTER)) {
+                this.logger.warn("Skip export of counter table [" + tableMetadata.getName() + "].");
+                continue;
+            }
+            final Path rowsFile = directory.resolve(tableMetadata.getName() + ROWS_FILE_SUFFIX);
+            final MessageDigest digest = TenantKeyspaceExporter.newDigest();
+            final long rows;
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new DigestOutputStream(this.newOutputStream(rowsFile), digest), BUFFER_SIZE), BUFFER_SIZE))) {
+                rows = this.exportTable(session, keyspaceMetadata, tableMetadata, out);
+            }
+            manifest.setProperty("table." + tableMetadata.getName() + ".rows", Long.toString(rows));
+            manifest.setProperty("table." + tableMetadata.getName() + ".sha256", TenantKeyspaceExporter.toHex(digest.digest()));
+            exportedRows.put(tableMetadata.getName(), rows);
+            this.logger.info("Exported [" + rows + "] rows of table [" + tableMetadata.getName() + "] for tenant [" + identifier + "].");
+        }
+        manifest.setProperty("tables", exportedRows.keySet().stream().collect(Collectors.joining(",")));
+
+        try (final OutputStream out = this.newOutputStream(directory.resolve(MANIFEST_FILE))) {
+            manifest.store(out, "Export of tenant " + identifier);
+        }
+        return exportedRows;
+    }
+
+    @Nonnull
+    public Map<String, Long> importFrom(@Nonnull final String identifier, @Nonnull final Path directory) throws IOException {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(directory, "A directory must be given!");
+
+        final Properties manifest = new Properties();
+        try (final InputStream in = Files.newInputStream(directory.resolve(MANIFEST_FILE))) {
+            manifest.load(in);
+        }
+        final String tables = manifest.getProperty("tables", "");
+        if (!this.checksum(directory.resolve(SCHEMA_FILE)).equals(manifest.getProperty("schema.sha256"))) {
+            throw new IllegalStateException("Checksum mismatch for schema!");
+        }
+
+        final Session session = this.cassandraSessionProvider.getTenantSession(identifier);
+        final ProtocolVersion protocolVersion =
+                session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+        final String exportProtocolVersion = manifest.getProperty("protocol");
+        if (exportProtocolVersion == null || !TenantKeyspaceExporter.isSameCollectionEncoding(
+                ProtocolVersion.valueOf(exportProtocolVersion), protocolVersion)) {
+            throw new IllegalStateException("Export was written with protocol version [" + exportProtocolVersion
+                    + "], which is not compatible with [" + protocolVersion + "]!");
+        }
+        final KeyspaceMetadata keyspaceMetadata = session.getCluster().getMetadata().getKeyspace(session.getLoggedKeyspace());
+        Assert.notNull(keyspaceMetadata, "Keyspace [" + session.getLoggedKeyspace() + "] unknown!");
+        final LinkedHashMap<String, Long> importedRows = new LinkedHashMap<>();
+        for (final String table : tables.isEmpty() ? new String[0] : tables.split(",")) {
+            final Path rowsFile = directory.resolve(table + ROWS_FILE_SUFFIX);
+            final String expectedChecksum = manifest.getProperty("table." + table + ".sha256");
+            if (!this.checksum(rowsFile).equals(expectedChecksum)) {
+                throw new IllegalStateException("Checksum mismatch for table [" + table + "]!");
+            }
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(Files.newInputStream(rowsFile), BUFFER_SIZE), BUFFER_SIZE))) {
+                final long rows = this.importTable(session, protocolVersion, keyspaceMetadata, table, in);
+                importedRows.put(table, rows);
+                this.logger.info("Imported [" + rows + "] rows of table [" + table + "] for tenant [" + identifier + "].");
+            }
+        }
+        return importedRows;
+    }
+
+    private long exportTable(final Session session, final KeyspaceMetadata keyspaceMetadata,
+                             final TableMetadata tableMetadata, final DataOutputStream out) throws IOException {
+        final SimpleStatement select = new SimpleStatement("SELECT * FROM "
+                + Metadata.quote(keyspaceMetadata.getName()) + "." + Metadata.quote(tableMetadata.getName()));
+        select.setFetchSize(this.fetchSize);
+        final ResultSet resultSet = session.execute(select);
+
+        final ColumnDefinitions columnDefinitions = resultSet.getColumnDefinitions();
+        out.writeInt(FORMAT_MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(columnDefinitions.size());
+        for (int i = 0; i < columnDefinitions.size(); i++) {
+            out.writeUTF(columnDefinitions.getName(i));
+            out.writeUTF(columnDefinitions.getType(i).toString());
+        }
+
+        final byte[] copyBuffer = new byte[BUFFER_SIZE];
+        long rows = 0L;
+        for (final Row row : resultSet) {
+            // prefetch the next page while the current one is written
+            if (resultSet.getAvailableWithoutFetching() == this.fetchSize / 2 && !resultSet.isFullyFetched()) {
+                resultSet.fetchMoreResults();
+            }
+            out.writeBoolean(true);
+            for (int i = 0; i < columnDefinitions.size(); i++) {
+                final ByteBuffer value = row.getBytesUnsafe(i);
+                if (value == null) {
+                    out.writeInt(-1);
+                } else {
+                    final ByteBuffer duplicate = value.duplicate();
+                    out.writeInt(duplicate.remaining());
+                    while (duplicate.hasRemaining()) {
+                        final int length = Math.min(copyBuffer.length, duplicate.remaining());
+                        duplicate.get(copyBuffer, 0, length);
+                        out.write(copyBuffer, 0, length);
+                    }
+                }
+            }
+            rows++;
+        }
+        out.writeBoolean(false);
+        return rows;
+    }
+
+    private long importTable(final Session session, final ProtocolVersion protocolVersion,
+                             final KeyspaceMetadata keyspaceMetadata, final String table,
+                             final DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported export format for table [" + table + "]!");
+        }
+        final TableMetadata tableMetadata = keyspaceMetadata.getTable(Metadata.quote(table));
+        if (tableMetadata == null) {
+            throw new IllegalStateException("Table [" + table + "] unknown, apply " + SCHEMA_FILE + " first!");
+        }
+        final int columnCount = in.readInt();
+        final String[] columns = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            final String column = in.readUTF();
+            final String type = in.readUTF();
+            // raw values are copied as is, so every column must exist with the exported type
+            final ColumnMetadata columnMetadata = tableMetadata.getColumn(Metadata.quote(column));
+            if (columnMetadata == null || !TenantKeyspaceExporter.normalize(columnMetadata.getType().toString())
+                    .equals(TenantKeyspaceExporter.normalize(type))) {
+                throw new IllegalStateException("Column [" + column + "] of table [" + table + "] does not match type ["
+                        + type + "], apply " + SCHEMA_FILE + " first!");
+            }
+            columns[i] = Metadata.quote(column);
+        }
+        final PreparedStatement insert = session.prepare("INSERT INTO " + Metadata.quote(table)
+                + " (" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columnCount, "?")) + ")");
+
+        // protocol v4 allows unset values, which avoids writing tombstones for null columns
+        final boolean skipNulls = protocolVersion.compareTo(ProtocolVersion.V4) >= 0;
+        final Semaphore window = new Semaphore(this.concurrency);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        long rows = 0L;
+        while (in.readBoolean()) {
+            final BoundStatement boundStatement = insert.bind();
+            for (int i = 0; i < columnCount; i++) {
+                final int length = in.readInt();
+                if (length >= 0) {
+                    final byte[] value = new byte[length];
+                    in.readFully(value);
+                    boundStatement.setBytesUnsafe(i, ByteBuffer.wrap(value));
+                } else if (!skipNulls) {
+                    boundStatement.setBytesUnsafe(i, null);
+                }
+            }
+            if (error.get() != null) {
+                break;
+            }
+            window.acquireUninterruptibly();
+            Futures.addCallback(session.executeAsync(boundStatement), new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(final ResultSet resultSet) {
+                    window.release();
+                }
+
+                @Override
+                public void onFailure(final Throwable throwable) {
+                    error.compareAndSet(null, throwable);
+                    window.release();
+                }
+            });
+            rows++;
+        }
+        window.acquireUninterruptibly(this.concurrency);
+        window.release(this.concurrency);
+
+        if (error.get() != null) {
+            throw new IllegalStateException("Could not import table [" + table + "]!", error.get());
+        }
+        return rows;
+    }
+
+    private String checksum(final Path file) throws IOException {
+        final MessageDigest digest = TenantKeyspaceExporter.newDigest();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (final InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            while (in.read(buffer) != -1) {
+                // digest is updated while reading
+            }
+        }
+        return TenantKeyspaceExporter.toHex(digest.digest());
+    }
+
+    private OutputStream newOutputStream(final Path file) throws IOException {
+        return Channels.newOutputStream(FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    private static boolean isSameCollectionEncoding(final ProtocolVersion exported, final ProtocolVersion current) {
+        // collections are serialized with 32 bit sizes since protocol v3, all other types are independent of the version
+        return (exported.compareTo(ProtocolVersion.V3) >= 0) == (current.compareTo(ProtocolVersion.V3) >= 0);
+    }
+
+    private static String normalize(final String type) {
+        // user types are qualified by their keyspace, which differs between the exported and the importing tenant,
+        // and result sets report text columns as varchar
+        return type.replaceAll("\"?\\w+\"?\\.", "").replaceAll("\\bvarchar\\b", "text");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException nsaex) {
+            throw new IllegalStateException("SHA-256 not available!", nsaex);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
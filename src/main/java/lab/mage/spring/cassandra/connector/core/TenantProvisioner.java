@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TypeCodec;
+import com.datastax.driver.core.schemabuilder.Create;
+import com.datastax.driver.core.schemabuilder.SchemaBuilder;
+import lab.mage.spring.cassandra.connector.domain.TenantInfo;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.DataTypeResolver;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public final class TenantProvisioner {
+
+    private final Logger logger;
+    private final CassandraSessionProvider cassandraSessionProvider;
+    private final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider;
+    private final String replication;
+    private final int concurrency;
+    private final long schemaAgreementTimeout;
+    private final ExecutorService executorService;
+
+    public TenantProvisioner(@Nonnull final Environment env, @Nonnull final Logger logger,
+                             @Nonnull final CassandraSessionProvider cassandraSessionProvider,
+                             @Nonnull final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider) {
+        super();
+        Assert.notNull(env, "An environment must be given!");
+        Assert.notNull(logger, "A logger must be given!");
+        Assert.notNull(cassandraSessionProvider, "A Cassandra session provider must be given!");
+        Assert.notNull(tenantAwareCassandraMapperProvider, "A tenant aware mapper provider must be given!");
+        this.logger = logger;
+        this.cassandraSessionProvider = cassandraSessionProvider;
+        this.tenantAwareCassandraMapperProvider = tenantAwareCassandraMapperProvider;
+        this.replication = env.getProperty(CassandraConnectorConstants.PROVISIONING_REPLICATION_PROP,
+                CassandraConnectorConstants.PROVISIONING_REPLICATION_PROP_DEFAULT);
+        this.concurrency = Integer.valueOf(env.getProperty(CassandraConnectorConstants.PROVISIONING_CONCURRENCY_PROP,
+                CassandraConnectorConstants.PROVISIONING_CONCURRENCY_PROP_DEFAULT));
+        this.schemaAgreementTimeout = TimeUnit.SECONDS.toNanos(Long.valueOf(env.getProperty(
+                CassandraConnectorConstants.PROVISIONING_SCHEMA_AGREEMENT_TIMEOUT_PROP,
+                CassandraConnectorConstants.PROVISIONING_SCHEMA_AGREEMENT_TIMEOUT_PROP_DEFAULT)));
+        Assert.isTrue(this.concurrency > 0, "Provisioning concurrency must be greater than zero!");
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mage-provisioning-");
+        threadFactory.setDaemon(true);
+        // shared by all batches, so concurrent calls do not multiply the load on the clusters
+        this.executorService = Executors.newFixedThreadPool(this.concurrency, threadFactory);
+    }
+
+    public void provision(@Nonnull final TenantInfo tenantInfo, @Nonnull final Collection<Class<?>> entityTypes,
+                          final boolean preWarm) {
+        final ProvisioningResult provisioningResult =
+                this.provisionAll(Collections.singletonList(tenantInfo), entityTypes, preWarm).get(0);
+        if (!provisioningResult.isSuccess()) {
+            throw new IllegalStateException("Could not provision tenant [" + tenantInfo.getIdentifier() + "]!",
+                    provisioningResult.getError().get());
+        }
+    }
+
+    @Nonnull
+    public List<ProvisioningResult> provisionAll(@Nonnull final Collection<TenantInfo> tenantInfos,
+                                                 @Nonnull final Collection<Class<?>> entityTypes,
+                                                 final boolean preWarm) {
+        Assert.notNull(tenantInfos, "Tenant infos must be given!");
+        Assert.notNull(entityTypes, "Entity types must be given!");
+        tenantInfos.forEach(tenantInfo -> {
+            Assert.notNull(tenantInfo, "Tenant info must be given!");
+            Assert.hasText(tenantInfo.getIdentifier(), "A tenant identifier must be given!");
+            Assert.hasText(tenantInfo.getKeyspace(), "A keyspace must be given!");
+        });
+        final List<EntityMetadata<?>> entityMetadata = new ArrayList<>(entityTypes.size());
+        entityTypes.forEach(entityType -> entityMetadata.add(EntityMetadata.of(entityType)));
+
+        this.logger.info("Provision [" + tenantInfos.size() + "] tenants.");
+
+        final List<Future<ProvisioningResult>> futures = new ArrayList<>(tenantInfos.size());
+        try {
+            for (final TenantInfo tenantInfo : tenantInfos) {
+                futures.add(this.executorService.submit(() -> {
+                    try {
+                        this.provisionTenant(tenantInfo, entityMetadata, preWarm);
+                        return new ProvisioningResult(tenantInfo, null);
+                    } catch (final RuntimeException rex) {
+                        this.logger.warn("Could not provision tenant [" + tenantInfo.getIdentifier() + "].", rex);
+                        return new ProvisioningResult(tenantInfo, rex);
+                    }
+                }));
+            }
+
+            final List<ProvisioningResult> provisioningResults = new ArrayList<>(futures.size());
+            for (final Future<ProvisioningResult> future : futures) {
+                provisioningResults.add(future.get());
+            }
+            return provisioningResults;
+        } catch (final InterruptedException iex) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Provisioning interrupted!", iex);
+        } catch (final ExecutionException eex) {
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Provisioning failed!", eex.getCause());
+        }
+    }
+
+    @PreDestroy
+    private void cleanUp() {
+        this.executorService.shutdownNow();
+    }
+
+    private void provisionTenant(final TenantInfo tenantInfo, final List<EntityMetadata<?>> entityMetadata,
+                                 final boolean preWarm) {
+        final Session session = this.cassandraSessionProvider.getClusterSession(tenantInfo.getClusterName(), tenantInfo.getContactPoints());
+        session.execute("CREATE KEYSPACE IF NOT EXISTS " + Metadata.quote(tenantInfo.getKeyspace())
+                + " WITH REPLICATION = " + this.replication);
+
+        // tables are created concurrently, so the schema agreement waits of the driver overlap
+        final List<ResultSetFuture> futures = new ArrayList<>(entityMetadata.size());
+        for (final EntityMetadata<?> metadata : entityMetadata) {
+            futures.add(session.executeAsync(this.createTable(metadata, tenantInfo.getKeyspace())));
+            for (final EntityMetadata.Property lookup : metadata.getLookups()) {
+                futures.add(session.executeAsync(this.createLookupTable(metadata, lookup, tenantInfo.getKeyspace())));
+            }
+        }
+        for (final ResultSetFuture future : futures) {
+            future.getUninterruptibly();
+        }
+        this.awaitSchemaAgreement(session.getCluster());
+
+        this.cassandraSessionProvider.saveTenantInfo(tenantInfo);
+
+        if (preWarm) {
+            entityMetadata.forEach(metadata -> this.tenantAwareCassandraMapperProvider.getMapper(tenantInfo.getIdentifier(), metadata.getType()));
+        }
+        this.logger.info("Provisioned tenant [" + tenantInfo.getIdentifier() + "].");
+    }
+
+    private Create createTable(final EntityMetadata<?> entityMetadata, final String keyspace) {
+        final List<TypeCodec<?>> codecs = this.cassandraSessionProvider.getCodecs();
+        final Create create = SchemaBuilder.createTable(keyspace, entityMetadata.getTableName()).ifNotExists();
+        entityMetadata.getPartitionKey().forEach(property ->
+                create.addPartitionKey(property.getColumnName(), DataTypeResolver.resolve(property.getGenericType(), codecs)));
+        entityMetadata.getClusteringColumns().forEach(property ->
+                create.addClusteringColumn(property.getColumnName(), DataTypeResolver.resolve(property.getGenericType(), codecs)));
+        entityMetadata.getProperties().stream()
+                .filter(property -> !property.isPartitionKey() && !property.isClusteringColumn())
+                .forEach(property -> create.addColumn(property.getColumnName(), DataTypeResolver.resolve(property.getGenericType(), codecs)));
+        return create;
+    }
+
+    private Create createLookupTable(final EntityMetadata<?> entityMetadata, final EntityMetadata.Property lookup,
+                                     final String keyspace) {
+        // one partition per lookup value, clustered by the primary keys of the entities sharing it
+        final List<TypeCodec<?>> codecs = this.cassandraSessionProvider.getCodecs();
+        final Create create = SchemaBuilder.createTable(keyspace, lookup.getLookupTable().get()).ifNotExists();
+        create.addPartitionKey(lookup.getColumnName(), DataTypeResolver.resolve(lookup.getGenericType(), codecs));
+        entityMetadata.getPrimaryKey().forEach(property ->
+                create.addClusteringColumn(property.getColumnName(), DataTypeResolver.resolve(property.getGenericType(), codecs)));
+        return create;
+    }
+
+    private void awaitSchemaAgreement(final Cluster cluster) {
+        final long deadline = System.nanoTime() + this.schemaAgreementTimeout;
+        while (!cluster.getMetadata().checkSchemaAgreement()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Schema agreement not reached for cluster [" + cluster.getClusterName() + "]!");
+            }
+            try {
+                Thread.sleep(200L);
+            } catch (final InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Waiting for schema agreement interrupted!", iex);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public final class TenantResult<R> {
+
+    private final String identifier;
+    private final List<R> values;
+    private final Throwable error;
+
+    private TenantResult(final String identifier, final List<R> values, final Throwable error) {
+        super();
+        this.identifier = identifier;
+        this.values = values;
+        this.error = error;
+    }
+
+    @Nonnull
+    public static <R> TenantResult<R> success(@Nonnull final String identifier, @Nonnull final List<R> values) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.notNull(values, "Values must be given!");
+        return new TenantResult<>(identifier, Collections.unmodifiableList(values), null);
+    }
+
+    @Nonnull
+    public static <R> TenantResult<R> failure(@Nonnull final String identifier, @Nonnull final Throwable error) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.notNull(error, "An error must be given!");
+        return new TenantResult<>(identifier, Collections.emptyList(), error);
+    }
+
+    @Nonnull
+    public String getIdentifier() {
+        return this.identifier;
+    }
+
+    @Nonnull
+    public List<R> getValues() {
+        return this.values;
+    }
+
+    @Nonnull
+    public Optional<Throwable> getError() {
+        return Optional.ofNullable(this.error);
+    }
+
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "TenantResult{" +
+                "identifier='" + identifier + '\'' +
+                ", values=" + values.size() +
+                ", error=" + error +
+                '}';
+    }
+}
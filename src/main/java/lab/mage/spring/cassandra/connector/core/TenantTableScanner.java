@@ -0,0 +1,320 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.Token;
+import com.datastax.driver.core.TokenRange;
+import com.datastax.driver.mapping.Mapper;
+import com.datastax.driver.mapping.annotations.Table;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.TenantContextHolder;
+import lab.mage.spring.cassandra.connector.util.ThreadPools;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public final class TenantTableScanner {
+
+    private static final Object END_OF_SCAN = new Object();
+
+    private final Logger logger;
+    private final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider;
+    private final int concurrency;
+    private final int splits;
+    private final int fetchSize;
+    private final long idleTimeout;
+    private final ExecutorService executorService;
+
+    public TenantTableScanner(@Nonnull final Environment env, @Nonnull final Logger logger,
+                              @Nonnull final TenantAwareCassandraMapperProvider tenantAwareCassandraMapperProvider) {
+        super();
+        Assert.notNull(env, "An environment must be given!");
+        Assert.notNull(logger, "A logger must be given!");
+        Assert.notNull(tenantAwareCassandraMapperProvider, "A tenant aware mapper provider must be given!");
+        this.logger = logger;
+        this.tenantAwareCassandraMapperProvider = tenantAwareCassandraMapperProvider;
+        this.concurrency = Integer.valueOf(env.getProperty(CassandraConnectorConstants.SCAN_CONCURRENCY_PROP,
+                CassandraConnectorConstants.SCAN_CONCURRENCY_PROP_DEFAULT));
+        this.splits = Integer.valueOf(env.getProperty(CassandraConnectorConstants.SCAN_SPLITS_PROP,
+                CassandraConnectorConstants.SCAN_SPLITS_PROP_DEFAULT));
+        this.fetchSize = Integer.valueOf(env.getProperty(CassandraConnectorConstants.SCAN_FETCH_SIZE_PROP,
+                CassandraConnectorConstants.SCAN_FETCH_SIZE_PROP_DEFAULT));
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(env.getProperty(
+                CassandraConnectorConstants.SCAN_IDLE_TIMEOUT_PROP, CassandraConnectorConstants.SCAN_IDLE_TIMEOUT_PROP_DEFAULT)));
+        Assert.isTrue(this.concurrency > 0, "Scan concurrency must be greater than zero!");
+        Assert.isTrue(this.splits > 0, "Scan splits must be greater than zero!");
+        Assert.isTrue(this.fetchSize > 0, "Scan fetch size must be greater than zero!");
+
+        final int threads = Integer.valueOf(env.getProperty(CassandraConnectorConstants.SCAN_THREADS_PROP,
+                CassandraConnectorConstants.SCAN_THREADS_PROP_DEFAULT));
+        this.executorService = ThreadPools.newBoundedThreadPool("mage-scan-", threads);
+    }
+
+    @Nonnull
+    public <T> Stream<T> scan(@Nonnull final Class<T> type, @Nonnull final ScanCheckpoint checkpoint) {
+        if (TenantContextHolder.getIdentifier().isPresent()) {
+            final String identifier = TenantContextHolder.getIdentifier().get();
+            return this.scan(identifier, type, checkpoint);
+        } else {
+            throw new IllegalArgumentException("Could not find tenant identifier, make sure you set an identifier using TenantContextHolder.");
+        }
+    }
+
+    @Nonnull
+    public <T> Stream<T> scan(@Nonnull final String identifier, @Nonnull final Class<T> type,
+                              @Nonnull final ScanCheckpoint checkpoint) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        Assert.hasText(identifier, "A tenant identifier must be given!");
+        Assert.notNull(type, "A type must be given!");
+        Assert.notNull(checkpoint, "A checkpoint must be given!");
+
+        final Mapper<T> mapper = this.tenantAwareCassandraMapperProvider.getMapper(identifier, type);
+        final Session session = mapper.getManager().getSession();
+        final Metadata metadata = session.getCluster().getMetadata();
+
+        final Table table = type.getAnnotation(Table.class);
+        final String keyspace = table.keyspace().isEmpty() ? session.getLoggedKeyspace() : table.keyspace();
+        final KeyspaceMetadata keyspaceMetadata = metadata.getKeyspace(keyspace);
+        Assert.notNull(keyspaceMetadata, "Keyspace [" + keyspace + "] unknown!");
+        final TableMetadata tableMetadata = keyspaceMetadata.getTable(table.name());
+        Assert.notNull(tableMetadata, "Table [" + table.name() + "] unknown!");
+
+        final String tokenFunction = tableMetadata.getPartitionKey().stream()
+                .map(ColumnMetadata::getName)
+                .map(Metadata::quote)
+                .collect(Collectors.joining(", ", "token(", ")"));
+        final String select = "SELECT * FROM " + Metadata.quote(keyspaceMetadata.getName()) + "." + Metadata.quote(tableMetadata.getName());
+        final PreparedStatement bounded = session.prepare(select + " WHERE " + tokenFunction + " > ? AND " + tokenFunction + " <= ?");
+        final PreparedStatement lowerBounded = session.prepare(select + " WHERE " + tokenFunction + " > ?");
+        final PreparedStatement upperBounded = session.prepare(select + " WHERE " + tokenFunction + " <= ?");
+
+        final ConcurrentLinkedQueue<ScanRange> pendingRanges = new ConcurrentLinkedQueue<>();
+        for (final TokenRange tokenRange : this.splitByReplica(metadata, keyspaceMetadata.getName())) {
+            final String rangeKey = tokenRange.getStart() + ":" + tokenRange.getEnd();
+            if (checkpoint.isCompleted(rangeKey)) {
+                continue;
+            }
+            final Token start = tokenRange.getStart();
+            final Token end = tokenRange.getEnd();
+            if (start.compareTo(end) < 0) {
+                pendingRanges.add(new ScanRange(rangeKey, this.withFetchSize(bounded.bind().setToken(0, start).setToken(1, end))));
+            } else {
+                // the range wraps around the ring or ends at the minimum token
+                final ScanRange lower = new ScanRange(rangeKey, this.withFetchSize(lowerBounded.bind().setToken(0, start)));
+                final ScanRange upper = new ScanRange(rangeKey, this.withFetchSize(upperBounded.bind().setToken(0, end)));
+                lower.sibling = upper;
+                upper.sibling = lower;
+                pendingRanges.add(lower);
+                pendingRanges.add(upper);
+            }
+        }
+
+        this.logger.info("Scan [" + pendingRanges.size() + "] token ranges of table [" + table.name()
+                + "] for tenant [" + identifier + "].");
+
+        final BlockingQueue<Object> rows = new ArrayBlockingQueue<>(this.fetchSize * this.concurrency);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        // a consumer may drop the stream without closing it, workers blocked on a full queue use this to give up
+        final AtomicLong lastTaken = new AtomicLong(System.nanoTime());
+        final int workers = Math.max(1, Math.min(this.concurrency, pendingRanges.size()));
+        final AtomicInteger activeWorkers = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            this.executorService.execute(() -> {
+                try {
+                    ScanRange scanRange;
+                    while (!failed.get() && !closed.get() && (scanRange = pendingRanges.poll()) != null) {
+                        for (final T entity : mapper.map(session.execute(scanRange.statement))) {
+                            this.put(rows, entity, closed, lastTaken);
+                        }
+                        this.put(rows, scanRange, closed, lastTaken);
+                    }
+                } catch (final RuntimeException rex) {
+                    this.logger.warn("Could not scan token range of table [" + table.name() + "].", rex);
+                    if (failed.compareAndSet(false, true)) {
+                        this.put(rows, rex, closed, lastTaken);
+                    }
+                } finally {
+                    if (activeWorkers.decrementAndGet() == 0) {
+                        this.put(rows, END_OF_SCAN, closed, lastTaken);
+                    }
+                }
+            });
+        }
+
+        final Iterator<T> iterator = new Iterator<T>() {
+
+            private T next;
+            private boolean done;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean hasNext() {
+                while (this.next == null && !this.done) {
+                    final Object element;
+                    try {
+                        element = rows.take();
+                        lastTaken.set(System.nanoTime());
+                    } catch (final InterruptedException iex) {
+                        Thread.currentThread().interrupt();
+                        closed.set(true);
+                        throw new IllegalStateException("Scan interrupted!", iex);
+                    }
+                    if (element == END_OF_SCAN) {
+                        this.done = true;
+                    } else if (element instanceof RuntimeException) {
+                        this.done = true;
+                        throw new IllegalStateException("Scan of table [" + table.name() + "] failed!", (RuntimeException) element);
+                    } else if (element instanceof ScanRange) {
+                        ((ScanRange) element).complete(checkpoint);
+                    } else {
+                        this.next = (T) element;
+                    }
+                }
+                return this.next != null;
+            }
+
+            @Override
+            public T next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final T current = this.next;
+                this.next = null;
+                return current;
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    closed.set(true);
+                    rows.clear();
+                });
+    }
+
+    private List<TokenRange> splitByReplica(final Metadata metadata, final String keyspace) {
+        final LinkedHashMap<Host, List<TokenRange>> rangesByReplica = new LinkedHashMap<>();
+        for (final TokenRange tokenRange : metadata.getTokenRanges()) {
+            final Set<Host> replicas = metadata.getReplicas(Metadata.quote(keyspace), tokenRange);
+            final Host primaryReplica = replicas.isEmpty() ? null : replicas.iterator().next();
+            for (final TokenRange unwrapped : tokenRange.unwrap()) {
+                rangesByReplica.computeIfAbsent(primaryReplica, (key) -> new ArrayList<>())
+                        .addAll(unwrapped.splitEvenly(this.splits));
+            }
+        }
+
+        // interleave the ranges of all replicas, so concurrent sub-scans are spread over the cluster
+        final ArrayList<TokenRange> interleaved = new ArrayList<>();
+        final List<Iterator<TokenRange>> iterators = rangesByReplica.values().stream()
+                .map(List::iterator)
+                .collect(Collectors.toList());
+        while (!iterators.isEmpty()) {
+            final Iterator<Iterator<TokenRange>> replicaIterator = iterators.iterator();
+            while (replicaIterator.hasNext()) {
+                final Iterator<TokenRange> ranges = replicaIterator.next();
+                interleaved.add(ranges.next());
+                if (!ranges.hasNext()) {
+                    replicaIterator.remove();
+                }
+            }
+        }
+        return interleaved;
+    }
+
+    private BoundStatement withFetchSize(final BoundStatement boundStatement) {
+        boundStatement.setFetchSize(this.fetchSize);
+        return boundStatement;
+    }
+
+    private void put(final BlockingQueue<Object> rows, final Object element, final AtomicBoolean closed,
+                     final AtomicLong lastTaken) {
+        try {
+            while (!rows.offer(element, 100L, TimeUnit.MILLISECONDS)) {
+                if (closed.get()) {
+                    return;
+                }
+                if (System.nanoTime() - lastTaken.get() > this.idleTimeout) {
+                    if (closed.compareAndSet(false, true)) {
+                        this.logger.warn("Abandon scan, no row was taken for [" + TimeUnit.NANOSECONDS.toMillis(this.idleTimeout)
+                                + "] ms, make sure scan streams are closed.");
+                        rows.clear();
+                        // a consumer coming back late fails instead of waiting for rows that never arrive
+                        rows.offer(new IllegalStateException("Scan abandoned after idle timeout!"));
+                    }
+                    return;
+                }
+            }
+        } catch (final InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    private void cleanUp() {
+        this.executorService.shutdownNow();
+    }
+
+    private static final class ScanRange {
+
+        private final String rangeKey;
+        private final BoundStatement statement;
+        private volatile boolean completed;
+        private ScanRange sibling;
+
+        private ScanRange(final String rangeKey, final BoundStatement statement) {
+            super();
+            this.rangeKey = rangeKey;
+            this.statement = statement;
+        }
+
+        private void complete(final ScanCheckpoint checkpoint) {
+            this.completed = true;
+            if (this.sibling == null || this.sibling.completed) {
+                checkpoint.markCompleted(this.rangeKey);
+            }
+        }
+    }
+}
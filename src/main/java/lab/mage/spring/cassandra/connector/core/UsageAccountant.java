@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.StatementInspector;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+public final class UsageAccountant {
+
+    private static final String UNKNOWN_TABLE = "unknown";
+
+    private final Logger logger;
+    private final BiFunction<Cluster, String, TenantHandle> tenantHandleResolver;
+    private final CopyOnWriteArrayList<UsageSink> usageSinks;
+    private final ScheduledExecutorService scheduledExecutorService;
+    // indexed by the dense tenant handle index, so the request path finds its tenant without hashing
+    private volatile AtomicReferenceArray<TenantUsage> tenantUsages;
+    // usage of removed tenants whose index was handed out again, kept until the next export
+    private final ConcurrentLinkedQueue<TenantUsage> retiredTenantUsages;
+
+    UsageAccountant(final Environment env, final Logger logger,
+                    final BiFunction<Cluster, String, TenantHandle> tenantHandleResolver) {
+        super();
+        this.logger = logger;
+        this.tenantHandleResolver = tenantHandleResolver;
+        this.usageSinks = new CopyOnWriteArrayList<>();
+        this.tenantUsages = new AtomicReferenceArray<>(32);
+        this.retiredTenantUsages = new ConcurrentLinkedQueue<>();
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mage-usage-export-");
+        threadFactory.setDaemon(true);
+        this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        final long exportInterval = Long.valueOf(env.getProperty(CassandraConnectorConstants.USAGE_EXPORT_INTERVAL_PROP,
+                CassandraConnectorConstants.USAGE_EXPORT_INTERVAL_PROP_DEFAULT));
+        if (exportInterval > 0L) {
+            this.scheduledExecutorService.scheduleWithFixedDelay(this::export, exportInterval, exportInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void addUsageSink(@Nonnull final UsageSink usageSink) {
+        Assert.notNull(usageSink, "A usage sink must be given!");
+        this.usageSinks.add(usageSink);
+    }
+
+    @Nonnull
+    public List<UsageSnapshot> getSnapshots() {
+        final long capturedAt = System.currentTimeMillis();
+        final ArrayList<UsageSnapshot> usageSnapshots = new ArrayList<>();
+        this.retiredTenantUsages.forEach(tenantUsage -> this.addSnapshots(usageSnapshots, tenantUsage, capturedAt));
+        final AtomicReferenceArray<TenantUsage> currentTenantUsages = this.tenantUsages;
+        for (int index = 0; index < currentTenantUsages.length(); index++) {
+            final TenantUsage tenantUsage = currentTenantUsages.get(index);
+            if (tenantUsage != null) {
+                this.addSnapshots(usageSnapshots, tenantUsage, capturedAt);
+            }
+        }
+        return usageSnapshots;
+    }
+
+    public synchronized void export() {
+        final ArrayList<TenantUsage> exportedRetiredTenantUsages = new ArrayList<>(this.retiredTenantUsages);
+        if (!this.usageSinks.isEmpty()) {
+            final List<UsageSnapshot> usageSnapshots = this.getSnapshots();
+            for (final UsageSink usageSink : this.usageSinks) {
+                try {
+                    usageSink.export(usageSnapshots);
+                } catch (final RuntimeException rex) {
+                    this.logger.warn("Could not export usage to [" + usageSink.getClass().getSimpleName() + "].", rex);
+                }
+            }
+        }
+        this.retiredTenantUsages.removeAll(exportedRetiredTenantUsages);
+    }
+
+    @Nonnull
+    public ResultSet meter(@Nonnull final Session session, @Nonnull final String table, @Nonnull final ResultSet resultSet) {
+        Assert.notNull(session, "A session must be given!");
+        Assert.notNull(table, "A table must be given!");
+        Assert.notNull(resultSet, "A result set must be given!");
+        final TenantHandle tenantHandle = session.getLoggedKeyspace() != null
+                ? this.tenantHandleResolver.apply(session.getCluster(), session.getLoggedKeyspace())
+                : null;
+        return tenantHandle != null
+                ? new MeteredResultSet(resultSet, this.getTableUsage(tenantHandle, table.toLowerCase()))
+                : resultSet;
+    }
+
+    LatencyTracker newLatencyTracker(final Cluster cluster) {
+        return new UsageTracker(cluster);
+    }
+
+    void shutdown() {
+        this.scheduledExecutorService.shutdownNow();
+        // counters are cumulative, a final export makes sure nothing since the last interval is lost
+        this.export();
+    }
+
+    private TableUsage getTableUsage(final TenantHandle tenantHandle, final String table) {
+        final AtomicReferenceArray<TenantUsage> currentTenantUsages = this.tenantUsages;
+        TenantUsage tenantUsage = tenantHandle.getIndex() < currentTenantUsages.length()
+                ? currentTenantUsages.get(tenantHandle.getIndex())
+                : null;
+        if (tenantUsage == null || !tenantUsage.identifier.equals(tenantHandle.getIdentifier())) {
+            tenantUsage = this.createTenantUsage(tenantHandle);
+        }
+        final TableUsage tableUsage = tenantUsage.tables.get(table);
+        return tableUsage != null ? tableUsage : tenantUsage.tables.computeIfAbsent(table, key -> new TableUsage());
+    }
+
+    private synchronized TenantUsage createTenantUsage(final TenantHandle tenantHandle) {
+        AtomicReferenceArray<TenantUsage> currentTenantUsages = this.tenantUsages;
+        if (tenantHandle.getIndex() >= currentTenantUsages.length()) {
+            final AtomicReferenceArray<TenantUsage> grownTenantUsages =
+                    new AtomicReferenceArray<>(Math.max(currentTenantUsages.length() * 2, tenantHandle.getIndex() + 1));
+            for (int index = 0; index < currentTenantUsages.length(); index++) {
+                grownTenantUsages.set(index, currentTenantUsages.get(index));
+            }
+            this.tenantUsages = grownTenantUsages;
+            currentTenantUsages = grownTenantUsages;
+        }
+        TenantUsage tenantUsage = currentTenantUsages.get(tenantHandle.getIndex());
+        if (tenantUsage == null || !tenantUsage.identifier.equals(tenantHandle.getIdentifier())) {
+            // the index belonged to a removed tenant, its usage is exported once more before being dropped
+            if (tenantUsage != null) {
+                this.retiredTenantUsages.add(tenantUsage);
+            }
+            tenantUsage = new TenantUsage(tenantHandle.getIdentifier());
+            currentTenantUsages.set(tenantHandle.getIndex(), tenantUsage);
+        }
+        return tenantUsage;
+    }
+
+    private void addSnapshots(final List<UsageSnapshot> usageSnapshots, final TenantUsage tenantUsage, final long capturedAt) {
+        tenantUsage.tables.forEach((table, tableUsage) -> usageSnapshots.add(new UsageSnapshot(tenantUsage.identifier,
+                table, tableUsage.reads.sum(), tableUsage.writes.sum(), tableUsage.rowsReturned.sum(),
+                tableUsage.bytesSent.sum(), tableUsage.bytesReceived.sum(), capturedAt)));
+    }
+
+    private final class UsageTracker implements LatencyTracker {
+
+        private final Cluster cluster;
+
+        private UsageTracker(final Cluster cluster) {
+            super();
+            this.cluster = cluster;
+        }
+
+        @Override
+        public void update(final Host host, final Statement statement, final Exception exception, final long newLatencyNanos) {
+            // statements without a keyspace, e.g. plain CQL strings, cannot be attributed to a tenant
+            final String keyspace = statement.getKeyspace();
+            if (keyspace == null) {
+                return;
+            }
+            final TenantHandle tenantHandle = UsageAccountant.this.tenantHandleResolver.apply(this.cluster, keyspace);
+            if (tenantHandle == null) {
+                return;
+            }
+
+            // every attempt is accounted, retries and speculative executions put load on the cluster as well
+            final TableUsage tableUsage = UsageAccountant.this.getTableUsage(tenantHandle,
+                    StatementInspector.getTable(statement).orElse(UsageAccountant.UNKNOWN_TABLE));
+            tableUsage.recordRequest(StatementInspector.isRead(statement), StatementInspector.getRequestSize(statement,
+                    this.cluster.getConfiguration().getProtocolOptions().getProtocolVersion(),
+                    this.cluster.getConfiguration().getCodecRegistry()));
+        }
+
+        @Override
+        public void onRegister(final Cluster cluster) {
+            // nothing to do
+        }
+
+        @Override
+        public void onUnregister(final Cluster cluster) {
+            // nothing to do
+        }
+    }
+
+    private static final class TenantUsage {
+
+        private final String identifier;
+        private final ConcurrentHashMap<String, TableUsage> tables;
+
+        private TenantUsage(final String identifier) {
+            super();
+            this.identifier = identifier;
+            this.tables = new ConcurrentHashMap<>();
+        }
+    }
+
+    static final class TableUsage {
+
+        private final LongAdder reads;
+        private final LongAdder writes;
+        private final LongAdder rowsReturned;
+        private final LongAdder bytesSent;
+        private final LongAdder bytesReceived;
+
+        private TableUsage() {
+            super();
+            this.reads = new LongAdder();
+            this.writes = new LongAdder();
+            this.rowsReturned = new LongAdder();
+            this.bytesSent = new LongAdder();
+            this.bytesReceived = new LongAdder();
+        }
+
+        void recordRequest(final boolean read, final long size) {
+            if (read) {
+                this.reads.increment();
+            } else {
+                this.writes.increment();
+            }
+            this.bytesSent.add(size);
+        }
+
+        void recordRow(final long size) {
+            this.rowsReturned.increment();
+            this.bytesReceived.add(size);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.core;
+
+import javax.annotation.Nonnull;
+
+public final class UsageSnapshot {
+
+    private final String identifier;
+    private final String table;
+    private final long reads;
+    private final long writes;
+    private final long rowsReturned;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long capturedAt;
+
+    UsageSnapshot(final String identifier, final String table, final long reads, final long writes,
+                  final long rowsReturned, final long bytesSent, final long bytesReceived, final long capturedAt) {
+        super();
+        this.identifier = identifier;
+        this.table = table;
+        this.reads = reads;
+        this.writes = writes;
+        this.rowsReturned = rowsReturned;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.capturedAt = capturedAt;
+    }
+
+    @Nonnull
+    public String getIdentifier() {
+        return this.identifier;
+    }
+
+    @Nonnull
+    public String getTable() {
+        return this.table;
+    }
+
+    public long getReads() {
+        return this.reads;
+    }
+
+    public long getWrites() {
+        return this.writes;
+    }
+
+    public long getRowsReturned() {
+        return this.rowsReturned;
+    }
+
+    public long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return this.bytesReceived;
+    }
+
+    public long getCapturedAt() {
+        return this.capturedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "UsageSnapshot{" +
+                "identifier='" + identifier + '\'' +
+                ", table='" + table + '\'' +
+                ", reads=" + reads +
+                ", writes=" + writes +
+                ", rowsReturned=" + rowsReturned +
+                ", bytesSent=" + bytesSent +
+                ", bytesReceived=" + bytesReceived +
+                ", capturedAt=" + capturedAt +
+                '}';
+    }
+}
@@ -19,9 +19,11 @@ import com.datastax.driver.mapping.annotations.Column;
 import com.datastax.driver.mapping.annotations.PartitionKey;
 import com.datastax.driver.mapping.annotations.Table;
 
-@Table(name = "tenants")
+@Table(name = TenantInfo.TABLE_NAME)
 public final class TenantInfo {
 
+    public static final String TABLE_NAME = "tenants";
+
     @PartitionKey
     private String identifier;
 
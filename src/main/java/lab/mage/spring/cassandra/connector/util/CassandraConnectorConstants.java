@@ -19,6 +19,8 @@ public interface CassandraConnectorConstants {
 
     String LOGGER_NAME = "mage-connector-logger";
 
+    String EXECUTOR_NAME = "mage-connector-executor";
+
     String CLUSTER_NAME_PROP = "lab.mage.connector.clustername";
     String CLUSTER_NAME_PROP_DEFAULT = "mage_staging_cluster";
 
@@ -28,11 +30,133 @@ public interface CassandraConnectorConstants {
     String CASSANDRA_PORT_PROP = "lab.mage.connector.port";
     String CASSANDRA_PORT_DEFAULT = "9042";
 
+    String EVENT_LOOP_THREADS_PROP = "lab.mage.connector.eventloop.threads";
+
     String KEYSPACE_PROP = "lab.mage.connector.keyspace";
     String KEYSPACE_PROP_DEFAULT = "mage_system";
 
     String CONSISTENCY_LEVEL_READ_PROP = "lab.mage.connector.cl.read";
     String CONSISTENCY_LEVEL_WRITE_PROP = "lab.mage.connector.cl.write";
     String CONSISTENCY_LEVEL_DELETE_PROP = "lab.mage.connector.cl.delete";
+    String CONSISTENCY_LEVEL_DEFAULT_PROP = "lab.mage.connector.cl.default";
     String CONSISTENCY_LEVEL_PROP_DEFAULT = "LOCAL_QUORUM";
+
+    String FAN_OUT_CONCURRENCY_PROP = "lab.mage.connector.fanout.concurrency";
+    String FAN_OUT_CONCURRENCY_PROP_DEFAULT = "64";
+
+    String FAN_OUT_CLUSTER_CONCURRENCY_PROP = "lab.mage.connector.fanout.concurrency.cluster";
+    String FAN_OUT_CLUSTER_CONCURRENCY_PROP_DEFAULT = "16";
+
+    String SCAN_CONCURRENCY_PROP = "lab.mage.connector.scan.concurrency";
+    String SCAN_CONCURRENCY_PROP_DEFAULT = "8";
+
+    String SCAN_SPLITS_PROP = "lab.mage.connector.scan.splits";
+    String SCAN_SPLITS_PROP_DEFAULT = "4";
+
+    String SCAN_FETCH_SIZE_PROP = "lab.mage.connector.scan.fetchsize";
+    String SCAN_FETCH_SIZE_PROP_DEFAULT = "1000";
+
+    String SCAN_IDLE_TIMEOUT_PROP = "lab.mage.connector.scan.idle.timeout";
+    String SCAN_IDLE_TIMEOUT_PROP_DEFAULT = "60000";
+
+    String SCAN_THREADS_PROP = "lab.mage.connector.scan.threads";
+    String SCAN_THREADS_PROP_DEFAULT = "32";
+
+    String BULK_CONCURRENCY_PROP = "lab.mage.connector.bulk.concurrency";
+    String BULK_CONCURRENCY_PROP_DEFAULT = "64";
+
+    String BULK_CHUNK_SIZE_PROP = "lab.mage.connector.bulk.chunksize";
+    String BULK_CHUNK_SIZE_PROP_DEFAULT = "1000";
+
+    String BULK_BATCH_SIZE_PROP = "lab.mage.connector.bulk.batchsize";
+    String BULK_BATCH_SIZE_PROP_DEFAULT = "50";
+
+    String BULK_RETRIES_PROP = "lab.mage.connector.bulk.retries";
+    String BULK_RETRIES_PROP_DEFAULT = "3";
+
+    String BULK_RETRY_BACKOFF_PROP = "lab.mage.connector.bulk.retry.backoff";
+    String BULK_RETRY_BACKOFF_PROP_DEFAULT = "100";
+
+    String PROVISIONING_REPLICATION_PROP = "lab.mage.connector.provisioning.replication";
+    String PROVISIONING_REPLICATION_PROP_DEFAULT = "{'class' : 'SimpleStrategy', 'replication_factor' : 3}";
+
+    String PROVISIONING_CONCURRENCY_PROP = "lab.mage.connector.provisioning.concurrency";
+    String PROVISIONING_CONCURRENCY_PROP_DEFAULT = "8";
+
+    String PROVISIONING_SCHEMA_AGREEMENT_TIMEOUT_PROP = "lab.mage.connector.provisioning.schemaagreement.timeout";
+    String PROVISIONING_SCHEMA_AGREEMENT_TIMEOUT_PROP_DEFAULT = "30";
+
+    String TENANT_REFRESH_INTERVAL_PROP = "lab.mage.connector.tenants.refresh.interval";
+    String TENANT_REFRESH_INTERVAL_PROP_DEFAULT = "30";
+
+    String SESSION_DRAIN_TIMEOUT_PROP = "lab.mage.connector.session.drain.timeout";
+    String SESSION_DRAIN_TIMEOUT_PROP_DEFAULT = "30000";
+
+    String SESSION_DRAIN_GRACE_PERIOD_PROP = "lab.mage.connector.session.drain.grace";
+    String SESSION_DRAIN_GRACE_PERIOD_PROP_DEFAULT = "2000";
+
+    String SHUTDOWN_TIMEOUT_PROP = "lab.mage.connector.shutdown.timeout";
+    String SHUTDOWN_TIMEOUT_PROP_DEFAULT = "10000";
+
+    String BREAKER_FAILURE_RATE_PROP = "lab.mage.connector.breaker.failure.rate";
+    String BREAKER_FAILURE_RATE_PROP_DEFAULT = "0.5";
+
+    String BREAKER_TIMEOUT_RATE_PROP = "lab.mage.connector.breaker.timeout.rate";
+    String BREAKER_TIMEOUT_RATE_PROP_DEFAULT = "0.3";
+
+    String BREAKER_MINIMUM_REQUESTS_PROP = "lab.mage.connector.breaker.requests.min";
+    String BREAKER_MINIMUM_REQUESTS_PROP_DEFAULT = "20";
+
+    String BREAKER_WINDOW_PROP = "lab.mage.connector.breaker.window";
+    String BREAKER_WINDOW_PROP_DEFAULT = "10000";
+
+    String BREAKER_OPEN_DURATION_PROP = "lab.mage.connector.breaker.open.duration";
+    String BREAKER_OPEN_DURATION_PROP_DEFAULT = "5000";
+
+    String SLOW_QUERY_THRESHOLD_PROP = "lab.mage.connector.slowquery.threshold";
+    String SLOW_QUERY_THRESHOLD_PROP_DEFAULT = "500";
+
+    String SLOW_QUERY_TENANT_THRESHOLDS_PROP = "lab.mage.connector.slowquery.threshold.tenants";
+    String SLOW_QUERY_TABLE_THRESHOLDS_PROP = "lab.mage.connector.slowquery.threshold.tables";
+
+    String TRACING_SAMPLE_RATE_PROP = "lab.mage.connector.tracing.sample.rate";
+    String TRACING_SAMPLE_RATE_PROP_DEFAULT = "0.0";
+
+    String COUNTER_FLUSH_INTERVAL_PROP = "lab.mage.connector.counter.flush.interval";
+    String COUNTER_FLUSH_INTERVAL_PROP_DEFAULT = "1000";
+
+    String COUNTER_BATCH_SIZE_PROP = "lab.mage.connector.counter.batch.size";
+    String COUNTER_BATCH_SIZE_PROP_DEFAULT = "50";
+
+    String COUNTER_CONCURRENCY_PROP = "lab.mage.connector.counter.concurrency";
+    String COUNTER_CONCURRENCY_PROP_DEFAULT = "32";
+
+    String TIMESERIES_BATCH_SIZE_PROP = "lab.mage.connector.timeseries.batch.size";
+    String TIMESERIES_BATCH_SIZE_PROP_DEFAULT = "50";
+
+    String TIMESERIES_FLUSH_INTERVAL_PROP = "lab.mage.connector.timeseries.flush.interval";
+    String TIMESERIES_FLUSH_INTERVAL_PROP_DEFAULT = "1000";
+
+    String TIMESERIES_CONCURRENCY_PROP = "lab.mage.connector.timeseries.concurrency";
+    String TIMESERIES_CONCURRENCY_PROP_DEFAULT = "16";
+
+    String TIMESERIES_RETRIES_PROP = "lab.mage.connector.timeseries.retries";
+    String TIMESERIES_RETRIES_PROP_DEFAULT = "3";
+
+    String TIMESERIES_RETRY_BACKOFF_PROP = "lab.mage.connector.timeseries.retry.backoff";
+    String TIMESERIES_RETRY_BACKOFF_PROP_DEFAULT = "100";
+
+    String CONTEXT_INHERITABLE_PROP = "lab.mage.connector.context.inheritable";
+    String CONTEXT_INHERITABLE_PROP_DEFAULT = "true";
+
+    String USAGE_EXPORT_INTERVAL_PROP = "lab.mage.connector.usage.export.interval";
+    String USAGE_EXPORT_INTERVAL_PROP_DEFAULT = "60000";
+
+    String USAGE_EXPORT_FILE_PROP = "lab.mage.connector.usage.export.file";
+
+    String USAGE_EXPORT_ADMIN_KEYSPACE_PROP = "lab.mage.connector.usage.export.adminkeyspace";
+    String USAGE_EXPORT_ADMIN_KEYSPACE_PROP_DEFAULT = "false";
+
+    String LOOKUP_CONCURRENCY_PROP = "lab.mage.connector.lookup.concurrency";
+    String LOOKUP_CONCURRENCY_PROP_DEFAULT = "32";
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.util;
+
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class CsvRecordReader implements RecordReader {
+
+    private static final char QUOTE = '"';
+
+    private final BufferedReader reader;
+    private final char delimiter;
+    private final List<String> header;
+    private final StringBuilder buffer;
+
+    public CsvRecordReader(@Nonnull final Path path) throws IOException {
+        this(path, ',');
+    }
+
+    public CsvRecordReader(@Nonnull final Path path, final char delimiter) throws IOException {
+        super();
+        Assert.notNull(path, "A path must be given!");
+        this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        this.delimiter = delimiter;
+        this.buffer = new StringBuilder(256);
+        this.header = this.readFields();
+        Assert.notNull(this.header, "File [" + path + "] does not contain a header!");
+    }
+
+    @Override
+    public Map<String, String> next() throws IOException {
+        final List<String> fields = this.readFields();
+        if (fields == null) {
+            return null;
+        }
+        if (fields.size() != this.header.size()) {
+            throw new IOException("Expected [" + this.header.size() + "] fields, but found [" + fields.size() + "]!");
+        }
+        final HashMap<String, String> record = new HashMap<>(this.header.size() * 2);
+        for (int i = 0; i < fields.size(); i++) {
+            record.put(this.header.get(i), fields.get(i));
+        }
+        return record;
+    }
+
+    private List<String> readFields() throws IOException {
+        String line = this.reader.readLine();
+        while (line != null && line.isEmpty()) {
+            line = this.reader.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+
+        final ArrayList<String> fields = new ArrayList<>();
+        boolean quoted = false;
+        this.buffer.setLength(0);
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                final char c = line.charAt(i);
+                if (quoted) {
+                    if (c == QUOTE) {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == QUOTE) {
+                            this.buffer.append(QUOTE);
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        this.buffer.append(c);
+                    }
+                } else if (c == QUOTE) {
+                    quoted = true;
+                } else if (c == this.delimiter) {
+                    fields.add(this.buffer.toString());
+                    this.buffer.setLength(0);
+                } else {
+                    this.buffer.append(c);
+                }
+            }
+            if (!quoted) {
+                break;
+            }
+            // quoted field spanning multiple lines
+            line = this.reader.readLine();
+            if (line == null) {
+                throw new IOException("Unexpected end of file within quoted field!");
+            }
+            this.buffer.append('\n');
+        }
+        fields.add(this.buffer.toString());
+        return fields;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.util;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.TypeCodec;
+import com.google.common.reflect.TypeToken;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public final class DataTypeResolver {
+
+    private static final HashMap<Class<?>, DataType> DATA_TYPES = new HashMap<>();
+
+    static {
+        DataTypeResolver.DATA_TYPES.put(String.class, DataType.text());
+        DataTypeResolver.DATA_TYPES.put(Integer.class, DataType.cint());
+        DataTypeResolver.DATA_TYPES.put(int.class, DataType.cint());
+        DataTypeResolver.DATA_TYPES.put(Long.class, DataType.bigint());
+        DataTypeResolver.DATA_TYPES.put(long.class, DataType.bigint());
+        DataTypeResolver.DATA_TYPES.put(Short.class, DataType.smallint());
+        DataTypeResolver.DATA_TYPES.put(short.class, DataType.smallint());
+        DataTypeResolver.DATA_TYPES.put(Byte.class, DataType.tinyint());
+        DataTypeResolver.DATA_TYPES.put(byte.class, DataType.tinyint());
+        DataTypeResolver.DATA_TYPES.put(Double.class, DataType.cdouble());
+        DataTypeResolver.DATA_TYPES.put(double.class, DataType.cdouble());
+        DataTypeResolver.DATA_TYPES.put(Float.class, DataType.cfloat());
+        DataTypeResolver.DATA_TYPES.put(float.class, DataType.cfloat());
+        DataTypeResolver.DATA_TYPES.put(Boolean.class, DataType.cboolean());
+        DataTypeResolver.DATA_TYPES.put(boolean.class, DataType.cboolean());
+        DataTypeResolver.DATA_TYPES.put(BigDecimal.class, DataType.decimal());
+        DataTypeResolver.DATA_TYPES.put(BigInteger.class, DataType.varint());
+        DataTypeResolver.DATA_TYPES.put(UUID.class, DataType.uuid());
+        DataTypeResolver.DATA_TYPES.put(Date.class, DataType.timestamp());
+        DataTypeResolver.DATA_TYPES.put(LocalDate.class, DataType.date());
+        DataTypeResolver.DATA_TYPES.put(ByteBuffer.class, DataType.blob());
+        DataTypeResolver.DATA_TYPES.put(InetAddress.class, DataType.inet());
+    }
+
+    private DataTypeResolver() {
+        super();
+    }
+
+    @Nonnull
+    public static DataType resolve(@Nonnull final Type javaType) {
+        return DataTypeResolver.resolve(javaType, Collections.emptyList());
+    }
+
+    @Nonnull
+    public static DataType resolve(@Nonnull final Type javaType, @Nonnull final Collection<TypeCodec<?>> codecs) {
+        Assert.notNull(javaType, "A java type must be given!");
+        Assert.notNull(codecs, "Codecs must be given!");
+        // registered codecs win, so custom mappings of built-in types resolve the same way the driver maps them
+        if (!codecs.isEmpty()) {
+            final TypeToken<?> typeToken = TypeToken.of(javaType);
+            for (final TypeCodec<?> codec : codecs) {
+                if (codec.accepts(typeToken)) {
+                    return codec.getCqlType();
+                }
+            }
+        }
+        if (javaType instanceof ParameterizedType) {
+            final ParameterizedType parameterizedType = (ParameterizedType) javaType;
+            final Type rawType = parameterizedType.getRawType();
+            final Type[] arguments = parameterizedType.getActualTypeArguments();
+            if (rawType == List.class) {
+                return DataType.list(DataTypeResolver.resolve(arguments[0], codecs));
+            } else if (rawType == Set.class) {
+                return DataType.set(DataTypeResolver.resolve(arguments[0], codecs));
+            } else if (rawType == Map.class) {
+                return DataType.map(DataTypeResolver.resolve(arguments[0], codecs), DataTypeResolver.resolve(arguments[1], codecs));
+            }
+        } else if (javaType instanceof Class) {
+            final Class<?> type = (Class<?>) javaType;
+            if (type.isEnum()) {
+                return DataType.text();
+            }
+            final DataType dataType = DataTypeResolver.DATA_TYPES.get(type);
+            if (dataType != null) {
+                return dataType;
+            }
+        }
+        throw new IllegalArgumentException("Could not resolve CQL type for [" + javaType.getTypeName() + "]!");
+    }
+}
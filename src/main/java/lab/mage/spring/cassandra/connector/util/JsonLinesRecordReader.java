@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.util;
+
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class JsonLinesRecordReader implements RecordReader {
+
+    private final BufferedReader reader;
+    private final StringBuilder buffer;
+    private String line;
+    private int position;
+
+    public JsonLinesRecordReader(@Nonnull final Path path) throws IOException {
+        super();
+        Assert.notNull(path, "A path must be given!");
+        this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        this.buffer = new StringBuilder(256);
+    }
+
+    @Override
+    public Map<String, String> next() throws IOException {
+        do {
+            this.line = this.reader.readLine();
+            if (this.line == null) {
+                return null;
+            }
+            this.position = 0;
+            this.skipWhitespace();
+        } while (this.position == this.line.length());
+
+        final HashMap<String, String> record = new HashMap<>();
+        this.expect('{');
+        this.skipWhitespace();
+        if (this.peek() == '}') {
+            return record;
+        }
+        while (true) {
+            this.skipWhitespace();
+            final String name = this.readString();
+            this.skipWhitespace();
+            this.expect(':');
+            this.skipWhitespace();
+            record.put(name, this.readValue());
+            this.skipWhitespace();
+            final char c = this.read();
+            if (c == '}') {
+                return record;
+            } else if (c != ',') {
+                throw new IOException("Unexpected character [" + c + "] at position [" + (this.position - 1) + "]!");
+            }
+        }
+    }
+
+    private String readValue() throws IOException {
+        final char c = this.peek();
+        if (c == '"') {
+            return this.readString();
+        } else if (c == '{' || c == '[') {
+            // records are expected to be flat objects
+            throw new IOException("Nested values are not supported at position [" + this.position + "]!");
+        }
+        final int start = this.position;
+        while (this.position < this.line.length()) {
+            final char current = this.line.charAt(this.position);
+            if (current == ',' || current == '}' || Character.isWhitespace(current)) {
+                break;
+            }
+            this.position++;
+        }
+        final String literal = this.line.substring(start, this.position);
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String readString() throws IOException {
+        this.expect('"');
+        this.buffer.setLength(0);
+        while (true) {
+            final char c = this.read();
+            if (c == '"') {
+                return this.buffer.toString();
+            } else if (c == '\\') {
+                final char escaped = this.read();
+                switch (escaped) {
+                    case 'n':
+                        this.buffer.append('\n');
+                        break;
+                    case 't':
+                        this.buffer.append('\t');
+                        break;
+                    case 'r':
+                        this.buffer.append('\r');
+                        break;
+                    case 'b':
+                        this.buffer.append('\b');
+                        break;
+                    case 'f':
+                        this.buffer.append('\f');
+                        break;
+                    case 'u':
+                        if (this.position + 4 > this.line.length()) {
+                            throw new IOException("Invalid unicode escape at position [" + this.position + "]!");
+                        }
+                        this.buffer.append((char) Integer.parseInt(this.line.substring(this.position, this.position + 4), 16));
+                        this.position += 4;
+                        break;
+                    default:
+                        this.buffer.append(escaped);
+                }
+            } else {
+                this.buffer.append(c);
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.line.length() && Character.isWhitespace(this.line.charAt(this.position))) {
+            this.position++;
+        }
+    }
+
+    private char peek() throws IOException {
+        if (this.position >= this.line.length()) {
+            throw new IOException("Unexpected end of line!");
+        }
+        return this.line.charAt(this.position);
+    }
+
+    private char read() throws IOException {
+        final char c = this.peek();
+        this.position++;
+        return c;
+    }
+
+    private void expect(final char expected) throws IOException {
+        final char c = this.read();
+        if (c != expected) {
+            throw new IOException("Expected [" + expected + "] but found [" + c + "] at position [" + (this.position - 1) + "]!");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.util;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Statement;
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class StatementInspector {
+
+    private static final Pattern TABLE_PATTERN =
+            Pattern.compile("(?i)\\b(?:FROM|INTO|UPDATE)\\s+(?:\"?\\w+\"?\\.)?\"?(\\w+)\"?");
+
+    private StatementInspector() {
+        super();
+    }
+
+    @Nonnull
+    public static String getQueryString(@Nonnull final Statement statement) {
+        Assert.notNull(statement, "A statement must be given!");
+        if (statement instanceof RegularStatement) {
+            return ((RegularStatement) statement).getQueryString();
+        } else if (statement instanceof BoundStatement) {
+            return ((BoundStatement) statement).preparedStatement().getQueryString();
+        } else if (statement instanceof BatchStatement) {
+            final BatchStatement batchStatement = (BatchStatement) statement;
+            return "BATCH of [" + batchStatement.size() + "] statements"
+                    + batchStatement.getStatements().stream()
+                    .findFirst()
+                    .map(first -> ", first [" + StatementInspector.getQueryString(first) + "]")
+                    .orElse("");
+        } else {
+            return statement.toString();
+        }
+    }
+
+    @Nonnull
+    public static Optional<String> getTable(@Nonnull final Statement statement) {
+        Assert.notNull(statement, "A statement must be given!");
+        if (statement instanceof BoundStatement) {
+            final BoundStatement boundStatement = (BoundStatement) statement;
+            if (boundStatement.preparedStatement().getVariables().size() > 0) {
+                return Optional.of(boundStatement.preparedStatement().getVariables().getTable(0));
+            }
+        } else if (statement instanceof BatchStatement) {
+            return ((BatchStatement) statement).getStatements().stream()
+                    .findFirst()
+                    .flatMap(StatementInspector::getTable);
+        }
+
+        final Matcher matcher = StatementInspector.TABLE_PATTERN.matcher(StatementInspector.getQueryString(statement));
+        return matcher.find() ? Optional.of(matcher.group(1).toLowerCase()) : Optional.empty();
+    }
+
+    public static boolean isRead(@Nonnull final Statement statement) {
+        Assert.notNull(statement, "A statement must be given!");
+        if (statement instanceof BatchStatement) {
+            return false;
+        }
+        final String queryString = StatementInspector.getQueryString(statement);
+        int offset = 0;
+        while (offset < queryString.length() && Character.isWhitespace(queryString.charAt(offset))) {
+            offset++;
+        }
+        return queryString.regionMatches(true, offset, "SELECT", 0, 6);
+    }
+
+    public static long getRequestSize(@Nonnull final Statement statement,
+                                      @Nonnull final ProtocolVersion protocolVersion,
+                                      @Nonnull final CodecRegistry codecRegistry) {
+        Assert.notNull(statement, "A statement must be given!");
+        Assert.notNull(protocolVersion, "A protocol version must be given!");
+        Assert.notNull(codecRegistry, "A codec registry must be given!");
+        long size = 0L;
+        if (statement instanceof BoundStatement) {
+            final BoundStatement boundStatement = (BoundStatement) statement;
+            for (int index = 0; index < boundStatement.preparedStatement().getVariables().size(); index++) {
+                final ByteBuffer value = boundStatement.isSet(index) ? boundStatement.getBytesUnsafe(index) : null;
+                size += value != null ? value.remaining() : 0;
+            }
+        } else if (statement instanceof RegularStatement) {
+            // unprepared statements ship their query string with every request
+            size += ((RegularStatement) statement).getQueryString().length();
+            final ByteBuffer[] values = ((RegularStatement) statement).getValues(protocolVersion, codecRegistry);
+            if (values != null) {
+                for (final ByteBuffer value : values) {
+                    size += value != null ? value.remaining() : 0;
+                }
+            }
+        } else if (statement instanceof BatchStatement) {
+            for (final Statement innerStatement : ((BatchStatement) statement).getStatements()) {
+                size += StatementInspector.getRequestSize(innerStatement, protocolVersion, codecRegistry);
+            }
+        }
+        return size;
+    }
+
+    @Nonnull
+    public static List<Integer> getValueSizes(@Nonnull final Statement statement,
+                                              @Nonnull final ProtocolVersion protocolVersion,
+                                              @Nonnull final CodecRegistry codecRegistry) {
+        Assert.notNull(statement, "A statement must be given!");
+        Assert.notNull(protocolVersion, "A protocol version must be given!");
+        Assert.notNull(codecRegistry, "A codec registry must be given!");
+        final ArrayList<Integer> valueSizes = new ArrayList<>();
+        if (statement instanceof BoundStatement) {
+            final BoundStatement boundStatement = (BoundStatement) statement;
+            for (int index = 0; index < boundStatement.preparedStatement().getVariables().size(); index++) {
+                final ByteBuffer value = boundStatement.isSet(index) ? boundStatement.getBytesUnsafe(index) : null;
+                valueSizes.add(value != null ? value.remaining() : -1);
+            }
+        } else if (statement instanceof RegularStatement) {
+            final ByteBuffer[] values = ((RegularStatement) statement).getValues(protocolVersion, codecRegistry);
+            if (values != null) {
+                for (final ByteBuffer value : values) {
+                    valueSizes.add(value != null ? value.remaining() : -1);
+                }
+            }
+        } else if (statement instanceof BatchStatement) {
+            ((BatchStatement) statement).getStatements().forEach(
+                    innerStatement -> valueSizes.addAll(StatementInspector.getValueSizes(innerStatement, protocolVersion, codecRegistry)));
+        }
+        return valueSizes;
+    }
+}
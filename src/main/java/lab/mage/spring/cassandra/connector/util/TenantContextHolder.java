@@ -19,10 +19,15 @@ import org.springframework.util.Assert;
 
 import javax.annotation.Nonnull;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 public class TenantContextHolder {
 
-    private static final InheritableThreadLocal<String> THREAD_LOCAL = new InheritableThreadLocal<>();
+    // child threads inherit the identifier by default, disable it if threads are created per task, e.g. virtual threads
+    private static final ThreadLocal<TenantReference> THREAD_LOCAL = Boolean.valueOf(System.getProperty(
+            CassandraConnectorConstants.CONTEXT_INHERITABLE_PROP, CassandraConnectorConstants.CONTEXT_INHERITABLE_PROP_DEFAULT))
+            ? new InheritableThreadLocal<>()
+            : new ThreadLocal<>();
 
     private TenantContextHolder() {
         super();
@@ -30,15 +35,60 @@ public class TenantContextHolder {
 
     @Nonnull
     public static Optional<String> getIdentifier() {
-        return Optional.ofNullable(TenantContextHolder.THREAD_LOCAL.get());
+        final TenantReference tenantReference = TenantContextHolder.THREAD_LOCAL.get();
+        return tenantReference != null ? Optional.of(tenantReference.getIdentifier()) : Optional.empty();
     }
 
     public static void setIdentifier(@Nonnull final String identifier) {
         Assert.notNull(identifier, "A tenant identifier must be given!");
-        TenantContextHolder.THREAD_LOCAL.set(identifier);
+        TenantContextHolder.THREAD_LOCAL.set(() -> identifier);
+    }
+
+    @Nonnull
+    public static Optional<TenantReference> getReference() {
+        return Optional.ofNullable(TenantContextHolder.THREAD_LOCAL.get());
+    }
+
+    public static void setReference(@Nonnull final TenantReference tenantReference) {
+        Assert.notNull(tenantReference, "A tenant reference must be given!");
+        TenantContextHolder.THREAD_LOCAL.set(tenantReference);
     }
 
     public static void clear() {
         TenantContextHolder.THREAD_LOCAL.remove();
     }
+
+    public static void runAs(@Nonnull final String identifier, @Nonnull final Runnable runnable) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        TenantContextHolder.runAs(() -> identifier, runnable);
+    }
+
+    public static void runAs(@Nonnull final TenantReference tenantReference, @Nonnull final Runnable runnable) {
+        Assert.notNull(runnable, "A runnable must be given!");
+        TenantContextHolder.callAs(tenantReference, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public static <V> V callAs(@Nonnull final String identifier, @Nonnull final Supplier<V> supplier) {
+        Assert.notNull(identifier, "A tenant identifier must be given!");
+        return TenantContextHolder.callAs(() -> identifier, supplier);
+    }
+
+    public static <V> V callAs(@Nonnull final TenantReference tenantReference, @Nonnull final Supplier<V> supplier) {
+        Assert.notNull(tenantReference, "A tenant reference must be given!");
+        Assert.notNull(supplier, "A supplier must be given!");
+        final TenantReference previousTenantReference = TenantContextHolder.THREAD_LOCAL.get();
+        TenantContextHolder.THREAD_LOCAL.set(tenantReference);
+        try {
+            return supplier.get();
+        } finally {
+            if (previousTenantReference != null) {
+                TenantContextHolder.THREAD_LOCAL.set(previousTenantReference);
+            } else {
+                TenantContextHolder.THREAD_LOCAL.remove();
+            }
+        }
+    }
 }
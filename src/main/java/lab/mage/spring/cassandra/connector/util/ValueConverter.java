@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.util;
+
+import org.springframework.util.Assert;
+
+import javax.annotation.Nonnull;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.UUID;
+
+public final class ValueConverter {
+
+    private ValueConverter() {
+        super();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Object convert(final String value, @Nonnull final Class<?> type) {
+        Assert.notNull(type, "A type must be given!");
+        if (value == null) {
+            return null;
+        }
+        if (type == String.class) {
+            return value;
+        }
+        final String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+
+        if (type == Integer.class || type == int.class) {
+            return Integer.valueOf(trimmed);
+        } else if (type == Long.class || type == long.class) {
+            return Long.valueOf(trimmed);
+        } else if (type == Short.class || type == short.class) {
+            return Short.valueOf(trimmed);
+        } else if (type == Byte.class || type == byte.class) {
+            return Byte.valueOf(trimmed);
+        } else if (type == Double.class || type == double.class) {
+            return Double.valueOf(trimmed);
+        } else if (type == Float.class || type == float.class) {
+            return Float.valueOf(trimmed);
+        } else if (type == Boolean.class || type == boolean.class) {
+            return Boolean.valueOf(trimmed);
+        } else if (type == BigDecimal.class) {
+            return new BigDecimal(trimmed);
+        } else if (type == BigInteger.class) {
+            return new BigInteger(trimmed);
+        } else if (type == UUID.class) {
+            return UUID.fromString(trimmed);
+        } else if (type == Date.class) {
+            return ValueConverter.toDate(trimmed);
+        } else if (type == ByteBuffer.class) {
+            return ValueConverter.toByteBuffer(trimmed);
+        } else if (type == InetAddress.class) {
+            try {
+                return InetAddress.getByName(trimmed);
+            } catch (final UnknownHostException uhex) {
+                throw new IllegalArgumentException("Could not convert [" + trimmed + "] to an address!", uhex);
+            }
+        } else if (type.isEnum()) {
+            return Enum.valueOf((Class<? extends Enum>) type, trimmed);
+        }
+
+        throw new IllegalArgumentException("Conversion to type [" + type.getSimpleName() + "] not supported!");
+    }
+
+    private static Date toDate(final String value) {
+        try {
+            return Date.from(Instant.parse(value));
+        } catch (final DateTimeParseException dtpex) {
+            try {
+                return new Date(Long.parseLong(value));
+            } catch (final NumberFormatException nfex) {
+                throw new IllegalArgumentException("Could not convert [" + value + "] to a date!", dtpex);
+            }
+        }
+    }
+
+    private static ByteBuffer toByteBuffer(final String value) {
+        final String hex = value.startsWith("0x") || value.startsWith("0X") ? value.substring(2) : value;
+        Assert.isTrue(hex.length() % 2 == 0, "Could not convert [" + value + "] to bytes!");
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -15,32 +15,82 @@
  */
 package lab.mage.spring.cassandra.connector;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.TypeCodec;
 import com.datastax.driver.mapping.Mapper;
 import lab.mage.spring.cassandra.connector.config.EnableCassandraConnector;
+import lab.mage.spring.cassandra.connector.core.BulkLoadResult;
 import lab.mage.spring.cassandra.connector.core.CassandraSessionProvider;
+import lab.mage.spring.cassandra.connector.core.CircuitBreaker;
+import lab.mage.spring.cassandra.connector.core.CircuitBreakerRegistry;
+import lab.mage.spring.cassandra.connector.core.CounterAggregator;
+import lab.mage.spring.cassandra.connector.core.ScanCheckpoint;
 import lab.mage.spring.cassandra.connector.core.TenantAwareCassandraMapperProvider;
 import lab.mage.spring.cassandra.connector.core.TenantAwareEntityTemplate;
+import lab.mage.spring.cassandra.connector.core.TenantAwareTimeSeriesTemplate;
+import lab.mage.spring.cassandra.connector.core.TenantBulkLoader;
+import lab.mage.spring.cassandra.connector.core.TenantHandle;
+import lab.mage.spring.cassandra.connector.core.TenantFanOutExecutor;
+import lab.mage.spring.cassandra.connector.core.TenantKeyspaceExporter;
+import lab.mage.spring.cassandra.connector.core.TenantProvisioner;
+import lab.mage.spring.cassandra.connector.core.TenantResult;
+import lab.mage.spring.cassandra.connector.core.TenantTableScanner;
+import lab.mage.spring.cassandra.connector.core.UsageAccountant;
+import lab.mage.spring.cassandra.connector.core.UsageSnapshot;
+import lab.mage.spring.cassandra.connector.domain.SampleAccessor;
+import lab.mage.spring.cassandra.connector.domain.SampleAccount;
 import lab.mage.spring.cassandra.connector.domain.SampleEntity;
+import lab.mage.spring.cassandra.connector.domain.SampleEvent;
+import lab.mage.spring.cassandra.connector.domain.SampleLocaleCodec;
+import lab.mage.spring.cassandra.connector.domain.SampleProfile;
+import lab.mage.spring.cassandra.connector.domain.TenantInfo;
 import lab.mage.spring.cassandra.connector.fixture.DataLoader;
 import lab.mage.spring.cassandra.connector.util.CassandraConnectorConstants;
+import lab.mage.spring.cassandra.connector.util.DataTypeResolver;
 import lab.mage.spring.cassandra.connector.util.TenantContextHolder;
 import org.cassandraunit.utils.EmbeddedCassandraServerHelper;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(
@@ -55,6 +105,14 @@ public class CassandraSessionProviderIntegrationTest {
     @EnableCassandraConnector
     public static class TestConfiguration {
 
+        @Bean
+        public TypeCodec<Locale> sampleLocaleCodec() {
+            return new SampleLocaleCodec();
+        }
+    }
+
+    public interface SampleContent {
+        String getContent();
     }
 
     private static final String TEST_TENANT = "test";
@@ -72,6 +130,30 @@ public class CassandraSessionProviderIntegrationTest {
     @Autowired
     private TenantAwareEntityTemplate tenantAwareEntityTemplate;
 
+    @Autowired
+    private TenantFanOutExecutor tenantFanOutExecutor;
+
+    @Autowired
+    private TenantTableScanner tenantTableScanner;
+
+    @Autowired
+    private TenantBulkLoader tenantBulkLoader;
+
+    @Autowired
+    private TenantKeyspaceExporter tenantKeyspaceExporter;
+
+    @Autowired
+    private TenantProvisioner tenantProvisioner;
+
+    @Autowired
+    private CounterAggregator counterAggregator;
+
+    @Autowired
+    private TenantAwareTimeSeriesTemplate tenantAwareTimeSeriesTemplate;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     public CassandraSessionProviderIntegrationTest() {
         super();
     }
@@ -320,4 +402,410 @@ public class CassandraSessionProviderIntegrationTest {
         Assert.assertTrue(fetchedSampleEntity.isPresent());
         Assert.assertEquals(sampleEntity, fetchedSampleEntity.get());
     }
+
+    @Test
+    public void shouldFanOutQueryToAllTenants() {
+        final List<TenantResult<Long>> tenantResults = this.tenantFanOutExecutor.execute(
+                tenantInfo -> TEST_TENANT.equals(tenantInfo.getIdentifier()),
+                new SimpleStatement("SELECT count(*) FROM samples"), row -> row.getLong(0), 30L, TimeUnit.SECONDS)
+                .collect(Collectors.toList());
+
+        Assert.assertEquals(1, tenantResults.size());
+        Assert.assertEquals(TEST_TENANT, tenantResults.get(0).getIdentifier());
+        Assert.assertTrue(tenantResults.get(0).isSuccess());
+        Assert.assertEquals(1, tenantResults.get(0).getValues().size());
+    }
+
+    @Test
+    public void shouldScanSampleEntities() {
+        final String identifier = UUID.randomUUID().toString();
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(identifier);
+        sampleEntity.setContent("test content");
+        this.tenantAwareEntityTemplate.save(sampleEntity);
+
+        final ScanCheckpoint checkpoint = new ScanCheckpoint();
+        try (final Stream<SampleEntity> sampleEntities = this.tenantTableScanner.scan(SampleEntity.class, checkpoint)) {
+            Assert.assertTrue(sampleEntities.anyMatch(sampleEntity::equals));
+        }
+    }
+
+    @Test
+    public void shouldBulkLoadSampleEntities() throws Exception {
+        final Path path = Paths.get(this.getClass().getResource("/samples.csv").toURI());
+
+        final BulkLoadResult bulkLoadResult = this.tenantBulkLoader.load(SampleEntity.class, path, TenantBulkLoader.Format.CSV);
+        Assert.assertEquals(3L, bulkLoadResult.getLoadedRows());
+        Assert.assertEquals(0L, bulkLoadResult.getFailedRows());
+
+        final Optional<SampleEntity> fetchedSampleEntity = this.tenantAwareEntityTemplate.findById(SampleEntity.class, "bulk-2");
+        Assert.assertTrue(fetchedSampleEntity.isPresent());
+        Assert.assertEquals("content, with comma", fetchedSampleEntity.get().getContent());
+    }
+
+    @Test
+    public void shouldReportRowsLoadedBeforeMalformedRecord() throws Exception {
+        final Path path = Paths.get(this.getClass().getResource("/samples-malformed.csv").toURI());
+
+        final AtomicReference<BulkLoadResult> lastProgress = new AtomicReference<>();
+        try {
+            this.tenantBulkLoader.load("test", SampleEntity.class, path, TenantBulkLoader.Format.CSV, lastProgress::set);
+            Assert.fail("Malformed record must abort the load!");
+        } catch (final IOException ioex) {
+            Assert.assertNotNull(lastProgress.get());
+            Assert.assertEquals(1L, lastProgress.get().getLoadedRows());
+        }
+
+        Assert.assertTrue(this.tenantAwareEntityTemplate.findById(SampleEntity.class, "bulk-4").isPresent());
+        Assert.assertFalse(this.tenantAwareEntityTemplate.findById(SampleEntity.class, "bulk-6").isPresent());
+    }
+
+    @Test
+    public void shouldExportAndImportTenantKeyspace() throws Exception {
+        final String identifier = UUID.randomUUID().toString();
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(identifier);
+        sampleEntity.setContent("test content");
+        this.tenantAwareEntityTemplate.save(sampleEntity);
+
+        final Path directory = this.temporaryFolder.newFolder().toPath();
+        final Map<String, Long> exportedRows = this.tenantKeyspaceExporter.exportTo(TEST_TENANT, directory);
+        Assert.assertTrue(exportedRows.get("samples") > 0L);
+
+        this.tenantAwareEntityTemplate.delete(sampleEntity);
+        Assert.assertFalse(this.tenantAwareEntityTemplate.findById(SampleEntity.class, identifier).isPresent());
+
+        final Map<String, Long> importedRows = this.tenantKeyspaceExporter.importFrom(TEST_TENANT, directory);
+        Assert.assertEquals(exportedRows.get("samples"), importedRows.get("samples"));
+        Assert.assertTrue(this.tenantAwareEntityTemplate.findById(SampleEntity.class, identifier).isPresent());
+
+        final Path manifestFile = directory.resolve("manifest.properties");
+        final Properties manifest = new Properties();
+        try (final InputStream in = Files.newInputStream(manifestFile)) {
+            manifest.load(in);
+        }
+        manifest.setProperty("protocol", ProtocolVersion.V2.name());
+        try (final OutputStream out = Files.newOutputStream(manifestFile)) {
+            manifest.store(out, null);
+        }
+        try {
+            this.tenantKeyspaceExporter.importFrom(TEST_TENANT, directory);
+            Assert.fail("Export with incompatible protocol version must not be imported!");
+        } catch (final IllegalStateException isex) {
+            Assert.assertTrue(isex.getMessage().contains(ProtocolVersion.V2.name()));
+        }
+    }
+
+    @Test
+    public void shouldProvisionTenant() {
+        final TenantInfo tenantInfo = new TenantInfo();
+        tenantInfo.setIdentifier("provisioned");
+        tenantInfo.setClusterName(CassandraConnectorConstants.CLUSTER_NAME_PROP_DEFAULT);
+        tenantInfo.setContactPoints("127.0.0.1");
+        tenantInfo.setKeyspace("mage_provisioned");
+
+        this.tenantProvisioner.provision(tenantInfo, Collections.singletonList(SampleEntity.class), true);
+
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(UUID.randomUUID().toString());
+        sampleEntity.setContent("test content");
+        final Mapper<SampleEntity> sampleEntityMapper = this.tenantAwareCassandraMapperProvider.getMapper("provisioned", SampleEntity.class);
+        sampleEntityMapper.save(sampleEntity);
+        Assert.assertEquals(sampleEntity, sampleEntityMapper.get(sampleEntity.getIdentifier()));
+    }
+
+    @Test
+    public void shouldRerouteTenantOnRefresh() {
+        final TenantInfo tenantInfo = new TenantInfo();
+        tenantInfo.setIdentifier("movable");
+        tenantInfo.setClusterName(CassandraConnectorConstants.CLUSTER_NAME_PROP_DEFAULT);
+        tenantInfo.setContactPoints("127.0.0.1");
+        tenantInfo.setKeyspace("mage_movable_source");
+        this.tenantProvisioner.provision(tenantInfo, Collections.singletonList(SampleEntity.class), false);
+
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(UUID.randomUUID().toString());
+        sampleEntity.setContent("test content");
+        this.tenantAwareCassandraMapperProvider.getMapper("movable", SampleEntity.class).save(sampleEntity);
+
+        tenantInfo.setKeyspace("mage_movable_target");
+        this.tenantProvisioner.provision(tenantInfo, Collections.singletonList(SampleEntity.class), false);
+        this.cassandraSessionProvider.refreshTenant("movable");
+
+        final Mapper<SampleEntity> sampleEntityMapper = this.tenantAwareCassandraMapperProvider.getMapper("movable", SampleEntity.class);
+        Assert.assertEquals("mage_movable_target", sampleEntityMapper.getManager().getSession().getLoggedKeyspace());
+        Assert.assertNull(sampleEntityMapper.get(sampleEntity.getIdentifier()));
+    }
+
+    @Test
+    public void shouldShareClusterForSameRing() {
+        final Cluster cluster = this.cassandraSessionProvider.getCluster("mage_staging_cluster", "127.0.0.1");
+        final Cluster aliasCluster = this.cassandraSessionProvider.getCluster("mage_alias_cluster", " 127.0.0.1 , 127.0.0.2");
+        Assert.assertSame(cluster, aliasCluster);
+    }
+
+    @Test
+    public void shouldTrackHealthyCircuits() {
+        this.tenantAwareCassandraMapperProvider.getMapper(TEST_TENANT, SampleEntity.class);
+        final CircuitBreakerRegistry circuitBreakerRegistry = this.cassandraSessionProvider.getCircuitBreakerRegistry();
+        Assert.assertTrue(circuitBreakerRegistry.isHealthy());
+        Assert.assertTrue(circuitBreakerRegistry.getStates().values().stream()
+                .allMatch(state -> CircuitBreaker.State.CLOSED.name().equals(state)));
+    }
+
+    @Test
+    public void shouldLogSlowQueries() throws Exception {
+        final ch.qos.logback.classic.Logger logbackLogger = (ch.qos.logback.classic.Logger) this.logger;
+        final ListAppender<ILoggingEvent> listAppender = new ListAppender<>();
+        listAppender.start();
+        logbackLogger.addAppender(listAppender);
+        this.cassandraSessionProvider.getQueryDiagnostics().setTableThreshold("Samples", 0L, TimeUnit.MILLISECONDS);
+        try {
+            final SampleEntity sampleEntity = new SampleEntity();
+            sampleEntity.setIdentifier(UUID.randomUUID().toString());
+            sampleEntity.setContent("slow content");
+            this.tenantAwareEntityTemplate.save(sampleEntity);
+            Assert.assertTrue(this.tenantAwareEntityTemplate.findById(SampleEntity.class, sampleEntity.getIdentifier()).isPresent());
+
+            // latencies are reported by the driver once the response is handled, which may trail the result
+            final long deadline = System.currentTimeMillis() + 5000L;
+            while (this.findSlowQueryMessages(listAppender).isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50L);
+            }
+            final List<String> slowQueryMessages = this.findSlowQueryMessages(listAppender);
+            Assert.assertFalse(slowQueryMessages.isEmpty());
+            Assert.assertTrue(slowQueryMessages.stream().allMatch(message ->
+                    message.contains("tenant [" + TEST_TENANT + "]") && message.contains("keyspace [mage_test]")));
+        } finally {
+            this.cassandraSessionProvider.getQueryDiagnostics().removeTableThreshold("samples");
+            logbackLogger.detachAppender(listAppender);
+        }
+    }
+
+    private List<String> findSlowQueryMessages(final ListAppender<ILoggingEvent> listAppender) {
+        synchronized (listAppender) {
+            return listAppender.list.stream()
+                    .filter(event -> event.getLevel() == Level.WARN)
+                    .map(ILoggingEvent::getFormattedMessage)
+                    .filter(message -> message.startsWith("Slow query") && message.contains("samples"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void shouldAggregateCounterIncrements() {
+        final Session session = this.cassandraSessionProvider.getTenantSession();
+        session.execute("CREATE TABLE IF NOT EXISTS api_calls (endpoint text PRIMARY KEY, calls counter)");
+
+        for (int i = 0; i < 100; i++) {
+            this.counterAggregator.increment("api_calls", "calls", 1L, "/samples");
+        }
+        this.counterAggregator.flush();
+
+        final Row row = session.execute("SELECT calls FROM api_calls WHERE endpoint = '/samples'").one();
+        Assert.assertEquals(100L, row.getLong("calls"));
+    }
+
+    @Test
+    public void shouldAppendAndReadTimeSeries() {
+        this.cassandraSessionProvider.getTenantSession().execute("CREATE TABLE IF NOT EXISTS sample_events ("
+                + "source text, bucket timestamp, occurred_at timestamp, payload text, "
+                + "PRIMARY KEY ((source, bucket), occurred_at))");
+
+        final long start = TimeUnit.HOURS.toMillis(TimeUnit.MILLISECONDS.toHours(System.currentTimeMillis()));
+        for (int i = 0; i < 12; i++) {
+            final SampleEvent sampleEvent = new SampleEvent();
+            sampleEvent.setSource("sensor");
+            sampleEvent.setOccurredAt(new Date(start + i * TimeUnit.MINUTES.toMillis(15L)));
+            sampleEvent.setPayload("event " + i);
+            this.tenantAwareTimeSeriesTemplate.append(sampleEvent);
+        }
+        this.tenantAwareTimeSeriesTemplate.flush();
+
+        final List<SampleEvent> sampleEvents = this.tenantAwareTimeSeriesTemplate.findRange(SampleEvent.class,
+                new Date(start), new Date(start + TimeUnit.HOURS.toMillis(3L)), "sensor").collect(Collectors.toList());
+        Assert.assertEquals(12, sampleEvents.size());
+        for (int i = 0; i < 12; i++) {
+            Assert.assertEquals("event " + i, sampleEvents.get(i).getPayload());
+        }
+    }
+
+    @Test
+    public void shouldSaveAsyncWithinTenantScope() throws Exception {
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(UUID.randomUUID().toString());
+        sampleEntity.setContent("async content");
+
+        TenantContextHolder.clear();
+        try {
+            TenantContextHolder.runAs(TEST_TENANT, () -> this.tenantAwareEntityTemplate.saveAsync(sampleEntity).join());
+            Assert.assertFalse(TenantContextHolder.getIdentifier().isPresent());
+            final Optional<SampleEntity> fetchedSampleEntity = TenantContextHolder.callAs(TEST_TENANT,
+                    () -> this.tenantAwareEntityTemplate.findByIdAsync(SampleEntity.class, sampleEntity.getIdentifier()).join());
+            Assert.assertTrue(fetchedSampleEntity.isPresent());
+        } finally {
+            TenantContextHolder.setIdentifier(TEST_TENANT);
+        }
+    }
+
+    @Test
+    public void shouldInternTenantHandles() {
+        final TenantHandle tenantHandle = this.cassandraSessionProvider.getTenantHandle(TEST_TENANT);
+        Assert.assertSame(tenantHandle, this.cassandraSessionProvider.getTenantHandle(TEST_TENANT));
+        Assert.assertSame(tenantHandle, this.cassandraSessionProvider.getTenantHandle());
+        Assert.assertFalse(TenantContextHolder.getReference().get() instanceof TenantHandle);
+        Assert.assertSame(tenantHandle, this.cassandraSessionProvider.callAs(TEST_TENANT,
+                () -> TenantContextHolder.getReference().get()));
+        Assert.assertFalse(TenantContextHolder.getReference().get() instanceof TenantHandle);
+        Assert.assertSame(tenantHandle.getMapper(SampleEntity.class), tenantHandle.getMapper(SampleEntity.class));
+        Assert.assertEquals("mage_test", tenantHandle.getSession().getLoggedKeyspace());
+    }
+
+    @Test
+    public void shouldAccountTenantUsage() {
+        final UsageAccountant usageAccountant = this.cassandraSessionProvider.getUsageAccountant();
+        final Optional<UsageSnapshot> before = this.findUsage(usageAccountant.getSnapshots());
+
+        final String identifier = UUID.randomUUID().toString();
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(identifier);
+        sampleEntity.setContent("usage");
+        this.tenantAwareEntityTemplate.save(sampleEntity);
+        final Optional<SampleEntity> fetchedSampleEntity = this.tenantAwareEntityTemplate.findById(SampleEntity.class, identifier);
+        Assert.assertTrue(fetchedSampleEntity.isPresent());
+        Assert.assertEquals(identifier, fetchedSampleEntity.get().getIdentifier());
+        Assert.assertEquals("usage", fetchedSampleEntity.get().getContent());
+
+        final UsageSnapshot after = this.findUsage(usageAccountant.getSnapshots()).get();
+        Assert.assertTrue(after.getWrites() > before.map(UsageSnapshot::getWrites).orElse(0L));
+        Assert.assertTrue(after.getReads() > before.map(UsageSnapshot::getReads).orElse(0L));
+        Assert.assertEquals(before.map(UsageSnapshot::getRowsReturned).orElse(0L) + 1L, after.getRowsReturned());
+        Assert.assertTrue(after.getBytesSent() > before.map(UsageSnapshot::getBytesSent).orElse(0L));
+        Assert.assertTrue(after.getBytesReceived() > before.map(UsageSnapshot::getBytesReceived).orElse(0L));
+    }
+
+    @Test
+    public void shouldNotAccountSharedKeyspaces() {
+        for (final String identifier : new String[]{"shared_a", "shared_b"}) {
+            final TenantInfo tenantInfo = new TenantInfo();
+            tenantInfo.setIdentifier(identifier);
+            tenantInfo.setClusterName(CassandraConnectorConstants.CLUSTER_NAME_PROP_DEFAULT);
+            tenantInfo.setContactPoints("127.0.0.1");
+            tenantInfo.setKeyspace("mage_shared");
+            this.tenantProvisioner.provision(tenantInfo, Collections.singletonList(SampleEntity.class), true);
+            this.cassandraSessionProvider.getTenantHandle(identifier);
+        }
+
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(UUID.randomUUID().toString());
+        sampleEntity.setContent("shared content");
+        TenantContextHolder.runAs("shared_a", () -> this.tenantAwareEntityTemplate.save(sampleEntity));
+        Assert.assertTrue(TenantContextHolder.callAs("shared_b",
+                () -> this.tenantAwareEntityTemplate.findById(SampleEntity.class, sampleEntity.getIdentifier())).isPresent());
+
+        Assert.assertTrue(this.cassandraSessionProvider.getUsageAccountant().getSnapshots().stream()
+                .noneMatch(usageSnapshot -> usageSnapshot.getIdentifier().startsWith("shared_")));
+    }
+
+    private Optional<UsageSnapshot> findUsage(final List<UsageSnapshot> usageSnapshots) {
+        return usageSnapshots.stream()
+                .filter(usageSnapshot -> TEST_TENANT.equals(usageSnapshot.getIdentifier()) && "samples".equals(usageSnapshot.getTable()))
+                .findFirst();
+    }
+
+    @Test
+    public void shouldReadProjections() {
+        final String identifier = UUID.randomUUID().toString();
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(identifier);
+        sampleEntity.setContent("projected content");
+        this.tenantAwareEntityTemplate.save(sampleEntity);
+
+        final Optional<SampleEntity> partialSampleEntity = this.tenantAwareEntityTemplate.findPartialById(
+                SampleEntity.class, Collections.singleton("identifier"), identifier);
+        Assert.assertTrue(partialSampleEntity.isPresent());
+        Assert.assertEquals(identifier, partialSampleEntity.get().getIdentifier());
+        Assert.assertNull(partialSampleEntity.get().getContent());
+
+        final Optional<SampleContent> sampleContent =
+                this.tenantAwareEntityTemplate.findProjectionById(SampleEntity.class, SampleContent.class, identifier);
+        Assert.assertTrue(sampleContent.isPresent());
+        Assert.assertEquals("projected content", sampleContent.get().getContent());
+
+        Assert.assertFalse(this.tenantAwareEntityTemplate.findProjectionById(
+                SampleEntity.class, SampleContent.class, UUID.randomUUID().toString()).isPresent());
+    }
+
+    @Test
+    public void shouldCreateAccessorOncePerTenant() {
+        final String identifier = UUID.randomUUID().toString();
+        final SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setIdentifier(identifier);
+        sampleEntity.setContent("accessor content");
+        this.tenantAwareEntityTemplate.save(sampleEntity);
+
+        final SampleAccessor sampleAccessor = this.tenantAwareCassandraMapperProvider.getAccessor(SampleAccessor.class);
+        Assert.assertSame(sampleAccessor, this.tenantAwareCassandraMapperProvider.getAccessor(SampleAccessor.class));
+        Assert.assertSame(sampleAccessor, this.tenantAwareCassandraMapperProvider.getAccessor(TEST_TENANT, SampleAccessor.class));
+        Assert.assertEquals(sampleEntity, sampleAccessor.findByIdentifier(identifier).one());
+    }
+
+    @Test
+    public void shouldMaintainLookupTables() {
+        final Session session = this.cassandraSessionProvider.getTenantSession();
+        session.execute("CREATE TABLE IF NOT EXISTS sample_accounts (identifier text PRIMARY KEY, email text)");
+        session.execute("CREATE TABLE IF NOT EXISTS sample_accounts_by_email (email text, identifier text, PRIMARY KEY (email, identifier))");
+
+        final String email = UUID.randomUUID().toString() + "@mage.lab";
+        final SampleAccount sampleAccount = new SampleAccount();
+        sampleAccount.setIdentifier(UUID.randomUUID().toString());
+        sampleAccount.setEmail(email);
+        this.tenantAwareEntityTemplate.save(sampleAccount);
+
+        final List<SampleAccount> sampleAccounts = this.tenantAwareEntityTemplate.findByLookup(SampleAccount.class, "email", email);
+        Assert.assertEquals(1, sampleAccounts.size());
+        Assert.assertEquals(sampleAccount.getIdentifier(), sampleAccounts.get(0).getIdentifier());
+
+        final String changedEmail = UUID.randomUUID().toString() + "@mage.lab";
+        sampleAccount.setEmail(changedEmail);
+        this.tenantAwareEntityTemplate.save(sampleAccount);
+        Assert.assertTrue(this.tenantAwareEntityTemplate.findByLookup(SampleAccount.class, "email", email).isEmpty());
+        Assert.assertEquals(1, this.tenantAwareEntityTemplate.findByLookup(SampleAccount.class, "email", changedEmail).size());
+
+        Assert.assertNull(session.execute("SELECT identifier FROM sample_accounts_by_email WHERE email = ?", email).one());
+
+        // deleted by its key only, the stored value still locates the entry
+        final SampleAccount sampleAccountKey = new SampleAccount();
+        sampleAccountKey.setIdentifier(sampleAccount.getIdentifier());
+        this.tenantAwareEntityTemplate.delete(sampleAccountKey);
+        Assert.assertTrue(this.tenantAwareEntityTemplate.findByLookup(SampleAccount.class, "email", changedEmail).isEmpty());
+        Assert.assertNull(session.execute("SELECT identifier FROM sample_accounts_by_email WHERE email = ?", changedEmail).one());
+    }
+
+    @Test
+    public void shouldRegisterCodecsOnTenantClusters() {
+        final Session session = this.cassandraSessionProvider.getTenantSession();
+        Assert.assertTrue(this.cassandraSessionProvider.getCodecs().stream().anyMatch(codec -> codec instanceof SampleLocaleCodec));
+        Assert.assertTrue(session.getCluster().getConfiguration().getCodecRegistry()
+                .codecFor(DataType.varchar(), Locale.class) instanceof SampleLocaleCodec);
+        Assert.assertEquals(DataType.varchar(),
+                DataTypeResolver.resolve(Locale.class, this.cassandraSessionProvider.getCodecs()));
+
+        final String identifier = UUID.randomUUID().toString();
+        session.execute("INSERT INTO samples (identifier, content) VALUES (?, ?)", identifier, Locale.GERMANY);
+        final Row row = session.execute("SELECT content FROM samples WHERE identifier = ?", identifier).one();
+        Assert.assertEquals("de-DE", row.getString("content"));
+        Assert.assertEquals(Locale.GERMANY, row.get("content", Locale.class));
+
+        session.execute("CREATE TABLE IF NOT EXISTS sample_profiles (identifier text PRIMARY KEY, locale text)");
+        final SampleProfile sampleProfile = new SampleProfile();
+        sampleProfile.setIdentifier(identifier);
+        sampleProfile.setLocale(Locale.CANADA_FRENCH);
+        this.tenantAwareEntityTemplate.save(sampleProfile);
+        Assert.assertEquals("fr-CA", session.execute("SELECT locale FROM sample_profiles WHERE identifier = ?", identifier)
+                .one().getString("locale"));
+        final Optional<SampleProfile> fetchedSampleProfile = this.tenantAwareEntityTemplate.findById(SampleProfile.class, identifier);
+        Assert.assertTrue(fetchedSampleProfile.isPresent());
+        Assert.assertEquals(Locale.CANADA_FRENCH, fetchedSampleProfile.get().getLocale());
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.domain;
+
+import com.datastax.driver.mapping.annotations.ClusteringColumn;
+import com.datastax.driver.mapping.annotations.Column;
+import com.datastax.driver.mapping.annotations.PartitionKey;
+import com.datastax.driver.mapping.annotations.Table;
+import lab.mage.spring.cassandra.connector.annotation.TimeSeries;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@Table(name = "sample_events")
+@TimeSeries(bucketColumn = "bucket", timestampColumn = "occurred_at", unit = TimeUnit.HOURS)
+public class SampleEvent {
+
+    @PartitionKey(0)
+    private String source;
+
+    @PartitionKey(1)
+    private Date bucket;
+
+    @ClusteringColumn
+    @Column(name = "occurred_at")
+    private Date occurredAt;
+
+    @Column(name = "payload")
+    private String payload;
+
+    public SampleEvent() {
+        super();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public Date getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(Date bucket) {
+        this.bucket = bucket;
+    }
+
+    public Date getOccurredAt() {
+        return occurredAt;
+    }
+
+    public void setOccurredAt(Date occurredAt) {
+        this.occurredAt = occurredAt;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+}
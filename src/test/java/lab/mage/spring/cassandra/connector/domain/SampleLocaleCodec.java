@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.spring.cassandra.connector.domain;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.TypeCodec;
+import com.datastax.driver.core.exceptions.InvalidTypeException;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+public final class SampleLocaleCodec extends TypeCodec<Locale> {
+
+    public SampleLocaleCodec() {
+        super(DataType.varchar(), Locale.class);
+    }
+
+    @Override
+    public ByteBuffer serialize(final Locale value, final ProtocolVersion protocolVersion) throws InvalidTypeException {
+        return value != null ? TypeCodec.varchar().serialize(value.toLanguageTag(), protocolVersion) : null;
+    }
+
+    @Override
+    public Locale deserialize(final ByteBuffer bytes, final ProtocolVersion protocolVersion) throws InvalidTypeException {
+        final String languageTag = TypeCodec.varchar().deserialize(bytes, protocolVersion);
+        return languageTag != null ? Locale.forLanguageTag(languageTag) : null;
+    }
+
+    @Override
+    public Locale parse(final String value) throws InvalidTypeException {
+        final String languageTag = TypeCodec.varchar().parse(value);
+        return languageTag != null ? Locale.forLanguageTag(languageTag) : null;
+    }
+
+    @Override
+    public String format(final Locale value) throws InvalidTypeException {
+        return TypeCodec.varchar().format(value != null ? value.toLanguageTag() : null);
+    }
+}